@@ -1,5 +1,6 @@
 plugins {
     id("java")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "net.siberanka"
@@ -17,8 +18,23 @@ repositories {
     maven("https://repo.papermc.io/repository/maven-public/")
 }
 
+val paperApi = "io.papermc.paper:paper-api:1.21.11-R0.1-SNAPSHOT"
+
 dependencies {
-    compileOnly("io.papermc.paper:paper-api:1.21.11-R0.1-SNAPSHOT")
+    compileOnly(paperApi)
+
+    // Benchmarks run outside the server, so they need the API at runtime
+    jmh(paperApi)
+
+    testImplementation(platform("org.junit:junit-bom:5.11.4"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+jmh {
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
 }
 
 tasks {
@@ -32,4 +48,8 @@ tasks {
 
     jar {
     }
+
+    test {
+        useJUnitPlatform()
+    }
 }
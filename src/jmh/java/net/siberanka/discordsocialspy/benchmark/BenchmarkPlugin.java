@@ -0,0 +1,35 @@
+package net.siberanka.discordsocialspy.benchmark;
+
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.logging.Logger;
+
+/**
+ * Minimal {@link Plugin} for running plugin components outside a server.
+ * Only the logger and the data folder are backed, everything else returns null.
+ */
+final class BenchmarkPlugin {
+
+    private BenchmarkPlugin() {
+    }
+
+    static Plugin create(File dataFolder) {
+        Logger logger = Logger.getLogger("DiscordSocialSpy-Benchmark");
+
+        return (Plugin) Proxy.newProxyInstance(
+                Plugin.class.getClassLoader(),
+                new Class<?>[] { Plugin.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getLogger" -> logger;
+                    case "getDataFolder" -> dataFolder;
+                    case "getName" -> "DiscordSocialSpy";
+                    case "isEnabled" -> true;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "BenchmarkPlugin";
+                    default -> method.getReturnType() == boolean.class ? false : null;
+                });
+    }
+}
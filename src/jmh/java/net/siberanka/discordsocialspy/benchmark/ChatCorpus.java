@@ -0,0 +1,38 @@
+package net.siberanka.discordsocialspy.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The chat lines of chat-corpus.txt: everyday messages mixed with ads,
+ * obfuscated words and spam, so benchmarks see the real spread of lengths
+ * and verdicts instead of one hand-picked string.
+ */
+final class ChatCorpus {
+
+    private ChatCorpus() {
+    }
+
+    static String[] load() {
+        try (InputStream in = ChatCorpus.class.getResourceAsStream("/chat-corpus.txt")) {
+            if (in == null)
+                throw new IllegalStateException("chat-corpus.txt is missing from the benchmark resources");
+
+            List<String> lines = new ArrayList<>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("#"))
+                    lines.add(line);
+            }
+            return lines.toArray(new String[0]);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot read chat-corpus.txt", ex);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package net.siberanka.discordsocialspy.benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+import net.siberanka.discordsocialspy.worker.AsyncDispatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end latency from queueTextMessage until the webhook request
+ * reaches a local HTTP server standing in for Discord.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class DispatcherLatencyBenchmark {
+
+    @Param({ "0", "50" })
+    public long lingerMs;
+
+    private HttpServer server;
+    private AsyncDispatcher dispatcher;
+    private final BlockingQueue<Long> received = new LinkedBlockingQueue<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/webhook", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+            received.add(System.nanoTime());
+        });
+        server.start();
+
+        File dataFolder = Files.createTempDirectory("dss-bench").toFile();
+        dispatcher = new AsyncDispatcher(BenchmarkPlugin.create(dataFolder), 2, 5000, 3, 2, 3, 10, lingerMs, false);
+        dispatcher.setWebhook("http://127.0.0.1:" + server.getAddress().getPort() + "/webhook");
+        dispatcher.setPrefix("[Spy] ");
+        dispatcher.setUsername("SocialSpy");
+        dispatcher.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dispatcher.shutdown();
+        server.stop(0);
+    }
+
+    @Benchmark
+    public long queueToDelivery() throws InterruptedException {
+        dispatcher.queueTextMessage("Steve: /msg Alex meet me at spawn");
+        return received.take();
+    }
+}
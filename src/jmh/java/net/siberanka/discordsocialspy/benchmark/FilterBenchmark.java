@@ -0,0 +1,83 @@
+package net.siberanka.discordsocialspy.benchmark;
+
+import net.siberanka.discordsocialspy.filter.FilterEngine;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Cost of one getBlockCause call over the chat corpus, with the rules of the
+ * bundled config.yml and with a large server's word and regex lists.
+ * cacheSize 0 measures the full scan, 1024 the mix of cache hits and scans
+ * a real server sees.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FilterBenchmark {
+
+    private static final String[] SYLLABLES = {
+            "ka", "ra", "mo", "te", "li", "su", "ne", "po", "di", "gu", "za", "ve", "bo", "xi", "fa", "yu"
+    };
+
+    @Param({ "default", "large" })
+    public String rules;
+
+    @Param({ "0", "1024" })
+    public int cacheSize;
+
+    private FilterEngine engine;
+    private String[] messages;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        messages = ChatCorpus.load();
+
+        YamlConfiguration config;
+        try (InputStream in = FilterBenchmark.class.getResourceAsStream("/config.yml")) {
+            if (in == null)
+                throw new IllegalStateException("config.yml is missing from the classpath");
+            config = YamlConfiguration.loadConfiguration(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+
+        List<String> words = new ArrayList<>(config.getStringList("filter.words"));
+        List<String> whitelist = new ArrayList<>(config.getStringList("filter.whitelisted-words"));
+        List<String> regex = new ArrayList<>(config.getStringList("filter.regex"));
+
+        if (rules.equals("large")) {
+            Random random = new Random(42);
+            for (int i = 0; i < 5000; i++)
+                words.add(word(random));
+            for (int i = 0; i < 200; i++)
+                whitelist.add(word(random) + "." + word(random) + ".com");
+            for (int i = 0; i < 100; i++)
+                regex.add("(?i)\\b" + word(random) + "[0-9]*\\.(?:com|net|org)\\b");
+        }
+
+        engine = FilterEngine.compile(words, whitelist, regex, cacheSize, Logger.getLogger("DiscordSocialSpy-Benchmark"));
+    }
+
+    private static String word(Random random) {
+        StringBuilder word = new StringBuilder();
+        int syllables = 2 + random.nextInt(4);
+        for (int i = 0; i < syllables; i++)
+            word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        return word.toString();
+    }
+
+    @Benchmark
+    public String getBlockCause() {
+        String message = messages[next];
+        next = next + 1 == messages.length ? 0 : next + 1;
+        return engine.getBlockCause(message);
+    }
+}
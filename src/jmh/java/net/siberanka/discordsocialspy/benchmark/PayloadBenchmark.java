@@ -0,0 +1,105 @@
+package net.siberanka.discordsocialspy.benchmark;
+
+import net.siberanka.discordsocialspy.worker.WebhookPayload;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Webhook body building: the previous String concatenation with three
+ * String.replace calls per field against the streaming JsonWriter, for a
+ * fixed worst-case line and for the lines of the chat corpus.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class PayloadBenchmark {
+
+    private static final String USERNAME = "SocialSpy";
+    private static final String AVATAR = "https://www.spigotmc.org/data/resource_icons/131/131648.jpg";
+
+    private final String text = "[Spy] Steve: /msg Alex \"meet me\" at spawn\nthen go to C:\\base";
+    private final String title = "Sign edited";
+    private final String description = "**Steve**\n\n```join play.example.com```\n```free \"ranks\"```\n``` ```\n``` ```\n";
+    private final String footer = "world | 120, 64, -340";
+    private final long timestamp = System.currentTimeMillis();
+
+    private String[] corpus;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        corpus = ChatCorpus.load();
+    }
+
+    private String nextLine() {
+        String line = corpus[next];
+        next = next + 1 == corpus.length ? 0 : next + 1;
+        return line;
+    }
+
+    @Benchmark
+    public byte[] textConcat() {
+        String json = "{"
+                + "\"content\":\"" + escape(text) + "\","
+                + "\"username\":\"" + escape(USERNAME) + "\","
+                + "\"avatar_url\":\"" + escape(AVATAR) + "\","
+                + "\"allowed_mentions\":{\"parse\":[]}"
+                + "}";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] textWriter() {
+        return WebhookPayload.text(text, null, USERNAME, AVATAR);
+    }
+
+    @Benchmark
+    public byte[] corpusConcat() {
+        String json = "{"
+                + "\"content\":\"" + escape("[Spy] Steve: " + nextLine()) + "\","
+                + "\"username\":\"" + escape(USERNAME) + "\","
+                + "\"avatar_url\":\"" + escape(AVATAR) + "\","
+                + "\"allowed_mentions\":{\"parse\":[]}"
+                + "}";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] corpusWriter() {
+        return WebhookPayload.text("[Spy] Steve: " + nextLine(), null, USERNAME, AVATAR);
+    }
+
+    @Benchmark
+    public byte[] embedConcat() {
+        String json = "{"
+                + "\"username\":\"" + escape(USERNAME) + "\","
+                + "\"avatar_url\":\"" + escape(AVATAR) + "\","
+                + "\"embeds\":[{"
+                + "\"title\":\"" + escape(title) + "\","
+                + "\"description\":\"" + escape(description) + "\","
+                + "\"footer\":{\"text\":\"" + escape(footer) + "\"},"
+                + "\"timestamp\":\"" + Instant.ofEpochMilli(timestamp) + "\""
+                + "}],"
+                + "\"allowed_mentions\":{\"parse\":[]}"
+                + "}";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] embedWriter() {
+        return WebhookPayload.embed(title, description, footer, timestamp, null, USERNAME, AVATAR);
+    }
+
+    // The escape() AsyncDispatcher used before the JsonWriter
+    private static String escape(String s) {
+        if (s == null)
+            return "";
+        return s
+                .replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,49 @@
+package net.siberanka.discordsocialspy.benchmark;
+
+import net.siberanka.discordsocialspy.listener.SignListener;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the embed description of a sign change, with sign text cut from
+ * the chat corpus the way players fill signs (up to 15 characters a line).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SignDescriptionBenchmark {
+
+    private static final int LINE_LENGTH = 15;
+
+    private String[][] signs;
+    private boolean[][] edits;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String[] messages = ChatCorpus.load();
+        signs = new String[messages.length][];
+        edits = new boolean[messages.length][];
+
+        for (int i = 0; i < messages.length; i++) {
+            String text = messages[i];
+            String[] lines = new String[4];
+            boolean[] edited = new boolean[4];
+            for (int line = 0; line < 4; line++) {
+                int start = Math.min(text.length(), line * LINE_LENGTH);
+                lines[line] = text.substring(start, Math.min(text.length(), start + LINE_LENGTH));
+                edited[line] = (i + line) % 3 == 0;
+            }
+            signs[i] = lines;
+            edits[i] = edited;
+        }
+    }
+
+    @Benchmark
+    public String describe() {
+        int i = next;
+        next = i + 1 == signs.length ? 0 : i + 1;
+        return SignListener.describe("Steve", signs[i], edits[i], (i & 1) == 0);
+    }
+}
@@ -1,39 +1,67 @@
 package net.siberanka.discordsocialspy;
 
+import net.siberanka.discordsocialspy.audit.AuditLog;
+import net.siberanka.discordsocialspy.audit.AuditType;
+import net.siberanka.discordsocialspy.audit.SignIndex;
 import net.siberanka.discordsocialspy.util.ConfigAutoUpdater;
+import net.siberanka.discordsocialspy.util.ConfigSnapshot;
+import net.siberanka.discordsocialspy.util.ConfigWatcher;
 import net.siberanka.discordsocialspy.util.LanguageManager;
+import net.siberanka.discordsocialspy.util.MetricsExporter;
+import net.siberanka.discordsocialspy.util.PlayerRateLimiter;
+import net.siberanka.discordsocialspy.util.SpamTracker;
 import net.siberanka.discordsocialspy.worker.AsyncDispatcher;
+import net.siberanka.discordsocialspy.worker.EmbedTemplates;
+import net.siberanka.discordsocialspy.worker.EventPipeline;
+import net.siberanka.discordsocialspy.worker.EventType;
+import net.siberanka.discordsocialspy.worker.OverflowPolicy;
+import net.siberanka.discordsocialspy.worker.Router;
 import net.siberanka.discordsocialspy.command.DiscordSocialSpyCommand;
+import net.siberanka.discordsocialspy.filter.FilterEngine;
+import net.siberanka.discordsocialspy.filter.FilterReloader;
 import net.siberanka.discordsocialspy.listener.SignListener;
+import net.siberanka.discordsocialspy.listener.SignReporter;
+import net.siberanka.discordsocialspy.listener.SignSubscribers;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.AsyncPlayerChatEvent;
 import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.server.ServerLoadEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
-import java.util.regex.Pattern;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class DiscordSocialSpyPlugin extends JavaPlugin implements Listener {
 
     private AsyncDispatcher dispatcher;
+    private EventPipeline pipeline;
     private LanguageManager lang;
 
-    private final Map<UUID, String> lastMessage = new ConcurrentHashMap<>();
-    private final Map<UUID, Integer> repeatCount = new ConcurrentHashMap<>();
-    private final Map<UUID, Boolean> spamWarned = new ConcurrentHashMap<>();
-    private final Map<UUID, Boolean> signNotify = new ConcurrentHashMap<>();
+    private final SpamTracker spamTracker = new SpamTracker();
+    private final PlayerRateLimiter rateLimiter = new PlayerRateLimiter();
+    private final SignSubscribers signSubscribers = new SignSubscribers();
+    private final SignReporter signReporter = new SignReporter(this);
 
-    private boolean filterEnabled = false;
-    private boolean checkChat = false;
-    private final List<Pattern> filterPatterns = new ArrayList<>();
-    private final List<String> filterWords = new ArrayList<>();
-    private final List<String> whitelistedWords = new ArrayList<>();
-    private String filterRoleUuid = "";
+    private volatile ConfigSnapshot settings = ConfigSnapshot.empty();
+    private FilterReloader filters;
+    private ConfigWatcher configWatcher;
+    private ScheduledTask metricsTask;
+    private AuditLog auditLog;
+    private SignIndex signIndex;
 
     @Override
     public void onEnable() {
@@ -43,25 +71,45 @@ public class DiscordSocialSpyPlugin extends JavaPlugin implements Listener {
         reloadConfig();
 
         lang = new LanguageManager(this);
-        lang.loadLanguage(getConfig().getString("language"));
+        lang.loadLanguage(getConfig().getString("language"), getConfig().getString("message-prefix", ""));
 
         dispatcher = new AsyncDispatcher(
                 this,
                 getConfig().getInt("async.sender_threads"),
-                getConfig().getInt("async.dispatcher_threads"),
                 getConfig().getInt("async.queue_size"),
                 getConfig().getInt("async.max_retries"),
                 getConfig().getInt("async.retry_interval"),
-                getConfig().getInt("async.rate_limit_wait"));
-
-        loadConfigValues();
-
-        DiscordSocialSpyCommand executor = new DiscordSocialSpyCommand(this, lang, signNotify);
+                getConfig().getInt("async.rate_limit_wait"),
+                getConfig().getInt("async.batch_size", 10),
+                getConfig().getLong("async.linger_ms", 250),
+                getConfig().getBoolean("async.spool", true));
+
+        pipeline = new EventPipeline(getConfig().getInt("async.event_queue_size", 10000), getLogger());
+        filters = new FilterReloader(getLogger());
+        auditLog = new AuditLog(new File(getDataFolder(), "audit").toPath(), getLogger());
+        signIndex = new SignIndex(new File(getDataFolder(), "signs.dat").toPath(), getLogger());
+
+        loadConfigValues(true);
+        dispatcher.start();
+        auditLog.start();
+        signIndex.start();
+
+        DiscordSocialSpyCommand executor = new DiscordSocialSpyCommand(this, lang, signSubscribers);
         getCommand("discordsocialspy").setExecutor(executor);
         getCommand("discordsocialspy").setTabCompleter(executor);
 
         getServer().getPluginManager().registerEvents(this, this);
-        getServer().getPluginManager().registerEvents(new SignListener(this, signNotify), this);
+        getServer().getPluginManager().registerEvents(new SignListener(this, signSubscribers, signReporter), this);
+        getServer().getPluginManager().registerEvents(signSubscribers, this);
+
+        Bukkit.getAsyncScheduler().runAtFixedRate(this, task -> spamTracker.expire(), 30, 30, TimeUnit.SECONDS);
+        // Picks up permissions granted to online staff
+        Bukkit.getAsyncScheduler().runAtFixedRate(this,
+                task -> signSubscribers.refresh(getServer().getOnlinePlayers()), 30, 30, TimeUnit.SECONDS);
+        Bukkit.getAsyncScheduler().runAtFixedRate(this, task -> rateLimiter.flush((name, count) ->
+                dispatcher.queueTextMessage(lang.template("messages-suppressed")
+                        .render("player", name, "count", String.valueOf(count)))), 1, 1, TimeUnit.SECONDS);
+        Bukkit.getAsyncScheduler().runAtFixedRate(this, task -> signReporter.flush(), 250, 250, TimeUnit.MILLISECONDS);
     }
 
     public AsyncDispatcher getDispatcher() {
@@ -72,69 +120,170 @@ public class DiscordSocialSpyPlugin extends JavaPlugin implements Listener {
         return lang;
     }
 
+    public EventPipeline getEventPipeline() {
+        return pipeline;
+    }
+
+    public AuditLog getAuditLog() {
+        return auditLog;
+    }
+
+    public SignIndex getSignIndex() {
+        return signIndex;
+    }
+
     public void loadConfigValues() {
-        dispatcher.setWebhook(getConfig().getString("webhook"));
+        loadConfigValues(false);
+    }
+
+    /**
+     * @param startup compile the filter on this thread, no chat can arrive yet
+     */
+    private void loadConfigValues(boolean startup) {
+        dispatcher.setWebhook(readUrls("webhook"));
         dispatcher.setPrefix(getConfig().getString("prefix"));
         dispatcher.setUsername(getConfig().getString("username"));
         dispatcher.setAvatarUrl(getConfig().getString("avatar_url"));
-        dispatcher.setSignWebhook(getConfig().getString("sign-webhook"));
-
-        filterEnabled = getConfig().getBoolean("filter.enabled", false);
-        checkChat = getConfig().getBoolean("filter.check-chat", false);
-        filterPatterns.clear();
-        filterWords.clear();
-        whitelistedWords.clear();
-
-        filterRoleUuid = getConfig().getString("filter.role-uuid", "");
-
-        if (filterEnabled) {
-            List<String> regexes = getConfig().getStringList("filter.regex");
-            for (String regex : regexes) {
-                try {
-                    filterPatterns.add(Pattern.compile(regex, Pattern.CASE_INSENSITIVE));
-                } catch (Exception e) {
-                    getLogger().warning("Invalid regex in filter: " + regex);
-                }
-            }
+        dispatcher.setSignWebhook(readUrls("sign-webhook"));
+        dispatcher.setRoutes(readWebhooks(), Router.load(getConfig().getConfigurationSection("routes"), getLogger()));
+        dispatcher.setOverflowPolicy(OverflowPolicy.parse(getConfig().getString("async.overflow_policy")));
+        dispatcher.setTemplates(EmbedTemplates.load(this));
 
-            List<String> words = getConfig().getStringList("filter.words");
-            for (String w : words) {
-                filterWords.add(w.toLowerCase(Locale.ROOT));
-            }
+        spamTracker.setThreshold(getConfig().getInt("spam.repeat-threshold", 3));
+        spamTracker.setWindowMillis(getConfig().getLong("spam.window-seconds", 60) * 1000);
+
+        rateLimiter.setEnabled(getConfig().getBoolean("rate-limit.enabled", true));
+        rateLimiter.setBurst(getConfig().getInt("rate-limit.burst", 10));
+        rateLimiter.setPerMinute(getConfig().getInt("rate-limit.per-minute", 20));
+
+        auditLog.setEnabled(getConfig().getBoolean("audit.enabled", true));
+        auditLog.setSegmentSize(getConfig().getLong("audit.segment-size-mb", 16) << 20);
+        auditLog.setRetentionDays(getConfig().getInt("audit.retention-days", 30));
+        signIndex.setEnabled(getConfig().getBoolean("audit.enabled", true));
+        signIndex.setRetentionDays(getConfig().getInt("audit.retention-days", 30));
+
+        scheduleMetricsExport(getConfig().getLong("metrics.export-interval", 60));
+
+        signReporter.setWindowMillis(getConfig().getLong("sign-debounce-ms", 3000));
+        signSubscribers.setDefaultEnabled(getConfig().getBoolean("sign-notify"));
+        signSubscribers.refresh(getServer().getOnlinePlayers());
+
+        // Chat keeps the current rules while the new ones compile
+        Supplier<FilterEngine> compiler = filterCompiler(getConfig());
+        if (startup)
+            filters.set(compiler.get());
+        else
+            filters.reload(compiler);
+
+        watchConfig(getConfig().getBoolean("filter.auto-reload", true));
 
-            List<String> whitelist = getConfig().getStringList("filter.whitelisted-words");
-            for (String w : whitelist) {
-                whitelistedWords.add(w.toLowerCase(Locale.ROOT));
+        settings = ConfigSnapshot.load(getConfig(), getServer().getCommandMap());
+    }
+
+    /**
+     * Reads the filter section now and returns the compile step, which may run
+     * on any thread.
+     */
+    private Supplier<FilterEngine> filterCompiler(ConfigurationSection config) {
+        if (!config.getBoolean("filter.enabled"))
+            return FilterEngine::disabled;
+
+        List<String> words = config.getStringList("filter.words");
+        List<String> whitelist = config.getStringList("filter.whitelisted-words");
+        List<String> regex = config.getStringList("filter.regex");
+        int cacheSize = config.getInt("filter.cache-size", 1024);
+
+        return () -> FilterEngine.compile(words, whitelist, regex, cacheSize, getLogger());
+    }
+
+    private void watchConfig(boolean enabled) {
+        if (!enabled) {
+            if (configWatcher != null) {
+                configWatcher.close();
+                configWatcher = null;
             }
+            return;
+        }
+        if (configWatcher != null)
+            return;
+
+        try {
+            configWatcher = new ConfigWatcher(new File(getDataFolder(), "config.yml").toPath(), 500,
+                    this::reloadFilterFromDisk, getLogger());
+        } catch (IOException ex) {
+            getLogger().warning("[DiscordSocialSpy] Cannot watch config.yml, filter changes need /discordsocialspy reload: "
+                    + ex.getMessage());
         }
     }
 
-    public String getBlockCause(String text) {
-        if (!filterEnabled || text == null || text.isEmpty()) {
-            return null;
+    /**
+     * Runs on the watcher thread when config.yml was edited. Only the filter
+     * rules are applied, everything else still needs a reload.
+     */
+    private void reloadFilterFromDisk() {
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.load(new File(getDataFolder(), "config.yml"));
+        } catch (IOException | InvalidConfigurationException ex) {
+            getLogger().warning("[DiscordSocialSpy] config.yml has errors, keeping the current filter rules: "
+                    + ex.getMessage());
+            return;
         }
 
-        String lowerText = text.toLowerCase(Locale.ROOT);
+        filters.reload(filterCompiler(config)).thenRun(() ->
+                getLogger().info("[DiscordSocialSpy] Filter rules reloaded from config.yml"));
+    }
 
-        // Whitelist check first
-        for (String whiteWord : whitelistedWords) {
-            if (lowerText.contains(whiteWord)) {
-                return null;
-            }
+    private void scheduleMetricsExport(long intervalSeconds) {
+        if (metricsTask != null) {
+            metricsTask.cancel();
+            metricsTask = null;
         }
+        if (intervalSeconds <= 0)
+            return;
 
-        for (String word : filterWords) {
-            if (lowerText.contains(word)) {
-                return "WORD";
+        MetricsExporter exporter = new MetricsExporter(new File(getDataFolder(), "metrics.prom").toPath());
+        metricsTask = Bukkit.getAsyncScheduler().runAtFixedRate(this, task -> {
+            try {
+                exporter.write(dispatcher, filters.get());
+            } catch (IOException ex) {
+                getLogger().warning("[DiscordSocialSpy] Failed to write metrics: " + ex.getMessage());
             }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private Map<String, List<String>> readWebhooks() {
+        Map<String, List<String>> webhooks = new LinkedHashMap<>();
+        ConfigurationSection section = getConfig().getConfigurationSection("webhooks");
+        if (section != null) {
+            for (String name : section.getKeys(false))
+                webhooks.put(name, readUrls("webhooks." + name));
         }
+        return webhooks;
+    }
 
-        for (Pattern pattern : filterPatterns) {
-            if (pattern.matcher(text).find()) {
-                return "REGEX";
-            }
+    // A webhook setting is a single URL or a list of URLs of the same channel
+    private List<String> readUrls(String path) {
+        if (getConfig().isList(path))
+            return getConfig().getStringList(path);
+        String url = getConfig().getString(path);
+        return url == null ? List.of() : List.of(url);
+    }
+
+    public ConfigSnapshot getSettings() {
+        return settings;
+    }
+
+    public FilterEngine getFilter() {
+        return filters.get();
+    }
+
+    public String getBlockCause(String text) {
+        FilterEngine filter = filters.get();
+        if (!filter.isEnabled()) {
+            return null;
         }
-        return null;
+        return filter.getBlockCause(text);
     }
 
     public boolean isBlocked(String text) {
@@ -143,80 +292,125 @@ public class DiscordSocialSpyPlugin extends JavaPlugin implements Listener {
 
     @Override
     public void onDisable() {
+        if (configWatcher != null)
+            configWatcher.close();
+        // Events and signs still waiting go out before the queue closes
+        if (pipeline != null)
+            pipeline.shutdown();
+        if (dispatcher != null && lang != null)
+            signReporter.flushAll();
         if (dispatcher != null)
             dispatcher.shutdown();
+        if (auditLog != null)
+            auditLog.close();
+        if (signIndex != null)
+            signIndex.close();
     }
 
     public void reloadAll() {
         reloadConfig();
         loadConfigValues();
-        lang.loadLanguage(getConfig().getString("language"));
+        // After reloadConfig, the templates embed the new message-prefix
+        lang.loadLanguage(getConfig().getString("language"), getConfig().getString("message-prefix", ""));
+    }
+
+    // Commands of plugins enabled after this one only exist in the command map now
+    @EventHandler
+    public void onServerLoad(ServerLoadEvent event) {
+        settings = ConfigSnapshot.load(getConfig(), getServer().getCommandMap());
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onCommand(PlayerCommandPreprocessEvent event) {
 
-        Player player = event.getPlayer();
+        ConfigSnapshot settings = this.settings;
         String msg = event.getMessage().trim();
-        String root = msg.split(" ")[0].substring(1).toLowerCase(Locale.ROOT);
 
-        for (String cmd : getConfig().getStringList("logged-commands")) {
+        int space = msg.indexOf(' ');
+        String root = msg.substring(1, space < 0 ? msg.length() : space).toLowerCase(Locale.ROOT);
 
-            if (!root.equals(cmd.toLowerCase(Locale.ROOT)))
-                continue;
+        if (!settings.isLogged(root))
+            return;
 
-            if (player.hasPermission(getConfig().getString("exclude-permission")))
-                return;
+        Player player = event.getPlayer();
+        if (player.hasPermission(settings.getExcludePermission()))
+            return;
 
-            UUID id = player.getUniqueId();
-            String last = lastMessage.getOrDefault(id, null);
+        // Cancelling cannot wait, everything else runs on the event pipeline
+        String blockCause = getBlockCause(msg);
+        if (blockCause != null) {
+            event.setCancelled(true);
+            player.sendMessage(lang.template("message-blocked").legacy());
+        }
 
-            if (last != null && last.equalsIgnoreCase(msg)) {
+        Location loc = player.getLocation();
+        CommandSnapshot command = new CommandSnapshot(player.getUniqueId(), player.getName(),
+                loc.getWorld() != null ? loc.getWorld().getName() : null,
+                loc.getBlockX(), loc.getBlockY(), loc.getBlockZ(),
+                msg, root, blockCause, System.currentTimeMillis());
+        pipeline.submit(() -> processCommand(settings, command));
+    }
 
-                int count = repeatCount.getOrDefault(id, 0) + 1;
-                repeatCount.put(id, count);
+    private void processCommand(ConfigSnapshot settings, CommandSnapshot command) {
 
-                if (count >= 3) {
-                    if (!spamWarned.getOrDefault(id, false)) {
-                        getLogger().warning(
-                                getConfig().getString("message-prefix") +
-                                        lang.get("spam-warning").replace("{player}", player.getName()));
-                        spamWarned.put(id, true);
-                    }
-                    return;
-                }
+        // The audit log keeps every command, spam suppression only applies to Discord
+        audit(command.blockCause() != null ? AuditType.BLOCKED_COMMAND : AuditType.COMMAND, command);
 
-            } else {
-                repeatCount.put(id, 0);
-                spamWarned.put(id, false);
-                lastMessage.put(id, msg);
+        SpamTracker.Result spam = spamTracker.record(command.playerId(), command.message());
+        if (spam != SpamTracker.Result.ALLOWED) {
+            if (spam == SpamTracker.Result.WARN) {
+                getLogger().warning(lang.prefixed("spam-warning").render("player", command.playerName()));
             }
+            return;
+        }
 
-            String blockCause = getBlockCause(msg);
-            if (blockCause != null) {
-                event.setCancelled(true);
-                player.sendMessage(
-                        net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer.legacyAmpersand()
-                                .deserialize(lang.get("message-blocked")));
-                String pingRole = filterRoleUuid;
-                dispatcher.queueTextMessage(lang.get("prefix-blocked-cmd") + player.getName() + ": " + msg, pingRole);
-                return;
-            }
+        if (command.blockCause() != null) {
+            String pingRole = settings.getFilterRoleUuid();
+            queuePlayerMessage(command.playerId(), command.playerName(), EventType.COMMAND, command.root(),
+                    command.blockCause(),
+                    lang.get("prefix-blocked-cmd") + command.playerName() + ": " + command.message(), pingRole);
+            return;
+        }
 
-            // FIXED: correct method name
-            dispatcher.queueTextMessage(player.getName() + ": " + msg);
+        if (settings.isCommandEmbeds()) {
+            if (rateLimiter.tryAcquire(command.playerId(), command.playerName())) {
+                dispatcher.queueTemplateEmbed(EmbedTemplates.COMMAND, EventType.COMMAND, command.root(), null,
+                        command.time(), null,
+                        "sender_username", command.playerName(),
+                        "sender_uuid", command.playerId().toString(),
+                        "full_command", command.message().substring(1),
+                        "command", command.root(),
+                        "world", command.world(),
+                        "plugin_name", getName(),
+                        "plugin_version", getDescription().getVersion());
+            }
             return;
         }
+
+        queuePlayerMessage(command.playerId(), command.playerName(), EventType.COMMAND, command.root(), null,
+                command.playerName() + ": " + command.message(), null);
+    }
+
+    private void audit(AuditType type, CommandSnapshot command) {
+        auditLog.record(command.time(), type, command.playerId(), command.playerName(),
+                command.world(), command.x(), command.y(), command.z(), command.message());
+    }
+
+    @EventHandler
+    public void onQuit(PlayerQuitEvent event) {
+        spamTracker.remove(event.getPlayer().getUniqueId());
+        rateLimiter.remove(event.getPlayer().getUniqueId());
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onChat(AsyncPlayerChatEvent event) {
-        if (!filterEnabled || !checkChat) {
+        ConfigSnapshot settings = this.settings;
+        if (!filters.get().isEnabled() || !settings.isCheckChat()) {
             return;
         }
 
         Player player = event.getPlayer();
-        if (player.hasPermission(getConfig().getString("exclude-permission"))) {
+        if (player.hasPermission(settings.getExcludePermission())) {
             return;
         }
 
@@ -224,10 +418,30 @@ public class DiscordSocialSpyPlugin extends JavaPlugin implements Listener {
         String blockCause = getBlockCause(msg);
         if (blockCause != null) {
             event.setCancelled(true);
-            player.sendMessage(net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer.legacyAmpersand()
-                    .deserialize(lang.get("message-blocked")));
-            String pingRole = filterRoleUuid;
-            dispatcher.queueTextMessage(lang.get("prefix-blocked-chat") + player.getName() + ": " + msg, pingRole);
+            player.sendMessage(lang.template("message-blocked").legacy());
+            Location loc = player.getLocation();
+            auditLog.record(AuditType.BLOCKED_CHAT, player.getUniqueId(), player.getName(),
+                    loc.getWorld() != null ? loc.getWorld().getName() : null,
+                    loc.getBlockX(), loc.getBlockY(), loc.getBlockZ(), msg);
+            String pingRole = settings.getFilterRoleUuid();
+            queuePlayerMessage(player.getUniqueId(), player.getName(), EventType.CHAT, null, blockCause,
+                    lang.get("prefix-blocked-chat") + player.getName() + ": " + msg, pingRole);
         }
     }
+
+    /**
+     * Queues a line on behalf of a player, subject to the per-player rate limit.
+     */
+    private void queuePlayerMessage(UUID playerId, String playerName, EventType type, String root, String cause,
+                                    String text, String pingRole) {
+        if (rateLimiter.tryAcquire(playerId, playerName))
+            dispatcher.queueTextMessage(type, root, cause, text, pingRole);
+    }
+
+    /**
+     * What the event pipeline needs of a command, taken on the player's thread.
+     */
+    private record CommandSnapshot(UUID playerId, String playerName, String world, int x, int y, int z,
+                                   String message, String root, String blockCause, long time) {
+    }
 }
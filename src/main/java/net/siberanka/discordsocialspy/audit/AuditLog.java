@@ -0,0 +1,364 @@
+package net.siberanka.discordsocialspy.audit;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Local, searchable copy of everything sent to Discord.
+ * <p>
+ * Records go to append-only segment files in the audit folder; a segment is
+ * sealed and a new one started once it reaches the size limit, and sealed
+ * segments older than the retention time are deleted. Two indexes live in
+ * memory:
+ * <ul>
+ *     <li>per player, the position of every record as one long
+ *     (segment id &lt;&lt; 32 | offset), 8 bytes per record, in write order;</li>
+ *     <li>per segment, the time range of its records.</li>
+ * </ul>
+ * A lookup walks the positions of one player from the newest and stops at
+ * the limit or at the first segment that ends before the requested time, so
+ * it reads only the records it returns, however large the log is.
+ * <p>
+ * All file access happens on a single audit thread; recording never blocks
+ * the caller.
+ */
+public final class AuditLog {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    // Record offsets are stored as int, a segment must stay well below 2 GB
+    private static final long MIN_SEGMENT = 64 * 1024;
+    private static final long MAX_SEGMENT = 1L << 30;
+
+    private final Path directory;
+    private final Logger logger;
+    private final ScheduledExecutorService executor;
+
+    // Only used on the audit thread
+    private final TreeMap<Integer, AuditSegment> segments = new TreeMap<>();
+    private final Map<UUID, Postings> postings = new HashMap<>();
+    private final Map<String, UUID> names = new HashMap<>();
+    private AuditSegment active;
+    private long records;
+    private boolean failed;
+
+    private volatile boolean enabled = true;
+    private volatile long segmentBytes = 16L << 20;
+    private volatile long retentionMillis = TimeUnit.DAYS.toMillis(30);
+
+    public AuditLog(Path directory, Logger logger) {
+        this.directory = directory;
+        this.logger = logger;
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "DiscordSocialSpy-Audit");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the files in the background. Called once the retention settings
+     * are applied, opening already deletes expired data.
+     */
+    public void start() {
+        executor.execute(this::open);
+        executor.scheduleAtFixedRate(this::expire, HOUR, HOUR, TimeUnit.MILLISECONDS);
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setSegmentSize(long bytes) {
+        segmentBytes = Math.min(Math.max(bytes, MIN_SEGMENT), MAX_SEGMENT);
+    }
+
+    /**
+     * @param days 0 or less keeps everything
+     */
+    public void setRetentionDays(int days) {
+        retentionMillis = days <= 0 ? Long.MAX_VALUE : TimeUnit.DAYS.toMillis(days);
+    }
+
+    public void record(AuditType type, UUID playerId, String playerName,
+                       String world, int x, int y, int z, String text) {
+        record(System.currentTimeMillis(), type, playerId, playerName, world, x, y, z, text);
+    }
+
+    /**
+     * @param time when it happened, epoch millis
+     */
+    public void record(long time, AuditType type, UUID playerId, String playerName,
+                       String world, int x, int y, int z, String text) {
+        if (!enabled)
+            return;
+
+        AuditRecord record = new AuditRecord(time, type, playerId, playerName, world, x, y, z, text);
+        try {
+            executor.execute(() -> append(record));
+        } catch (RejectedExecutionException ignored) {
+            // shutting down
+        }
+    }
+
+    /**
+     * Finds the newest records of a player, by the name they had when the
+     * records were written.
+     *
+     * @param since oldest time to include, epoch millis
+     * @return at most limit records, newest first
+     */
+    public CompletableFuture<List<AuditRecord>> lookup(String playerName, long since, int limit) {
+        try {
+            return CompletableFuture.supplyAsync(() -> find(playerName, since, limit), executor);
+        } catch (RejectedExecutionException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    /**
+     * Flushes and closes the segment files, waiting for pending records.
+     */
+    public void close() {
+        try {
+            executor.execute(this::closeSegments);
+        } catch (RejectedExecutionException ignored) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void open() {
+        try {
+            Files.createDirectories(directory);
+
+            List<Integer> ids = new ArrayList<>();
+            try (Stream<Path> files = Files.list(directory)) {
+                files.forEach(path -> {
+                    int id = AuditSegment.parseId(path.getFileName().toString());
+                    if (id >= 0)
+                        ids.add(id);
+                });
+            }
+            Collections.sort(ids);
+
+            AuditSegment last = null;
+            boolean lastSealed = true;
+            for (int id : ids) {
+                if (last != null && !lastSealed)
+                    last.seal(); // crashed before sealing, only the newest may stay open
+
+                AuditSegment segment = new AuditSegment(directory, id);
+                lastSealed = segment.load();
+                index(segment);
+                if (lastSealed)
+                    segment.releasePlayers();
+
+                segments.put(id, segment);
+                records += segment.records();
+                last = segment;
+            }
+
+            if (last != null && !lastSealed) {
+                last.reopen();
+                active = last;
+            } else {
+                startSegment(last == null ? 0 : last.id + 1);
+            }
+
+            logger.info("[DiscordSocialSpy] Audit log: " + records + " records in "
+                    + segments.size() + " segments");
+            expire();
+        } catch (IOException ex) {
+            failed = true;
+            logger.warning("[DiscordSocialSpy] Failed to open the audit log, nothing will be recorded: "
+                    + ex.getMessage());
+        }
+    }
+
+    private void index(AuditSegment segment) {
+        long base = (long) segment.id << 32;
+        for (Map.Entry<UUID, AuditSegment.Offsets> entry : segment.players().entrySet()) {
+            AuditSegment.Offsets offsets = entry.getValue();
+            Postings list = postings.computeIfAbsent(entry.getKey(), k -> new Postings());
+            for (int i = 0; i < offsets.size; i++)
+                list.add(base | (offsets.values[i] & 0xFFFFFFFFL));
+            names.put(offsets.name.toLowerCase(Locale.ROOT), entry.getKey());
+        }
+    }
+
+    private void startSegment(int id) throws IOException {
+        AuditSegment segment = new AuditSegment(directory, id);
+        segment.create();
+        segments.put(id, segment);
+        active = segment;
+    }
+
+    private void append(AuditRecord record) {
+        if (failed || active == null)
+            return;
+
+        try {
+            if (active.size() >= segmentBytes)
+                rotate();
+
+            int offset = active.append(record);
+            records++;
+            postings.computeIfAbsent(record.getPlayerId(), k -> new Postings())
+                    .add((long) active.id << 32 | (offset & 0xFFFFFFFFL));
+            names.put(record.getPlayerName().toLowerCase(Locale.ROOT), record.getPlayerId());
+        } catch (IOException ex) {
+            logger.warning("[DiscordSocialSpy] Failed to write to the audit log: " + ex.getMessage());
+        }
+    }
+
+    private void rotate() throws IOException {
+        active.seal();
+        startSegment(active.id + 1);
+        expire();
+    }
+
+    /**
+     * Deletes the sealed segments whose newest record is older than the
+     * retention time, then drops their positions from the player index.
+     */
+    private void expire() {
+        if (failed || active == null)
+            return;
+
+        long retention = retentionMillis;
+        long cutoff = retention == Long.MAX_VALUE ? Long.MIN_VALUE : System.currentTimeMillis() - retention;
+        boolean removed = false;
+
+        Iterator<AuditSegment> it = segments.values().iterator();
+        while (it.hasNext()) {
+            AuditSegment segment = it.next();
+            if (segment == active || segment.maxTime() >= cutoff)
+                break;
+            try {
+                segment.delete();
+            } catch (IOException ex) {
+                logger.warning("[DiscordSocialSpy] Failed to delete old audit segment: " + ex.getMessage());
+                break;
+            }
+            records -= segment.records();
+            it.remove();
+            removed = true;
+        }
+
+        if (!removed)
+            return;
+
+        long first = (long) segments.firstKey() << 32;
+        postings.values().removeIf(list -> list.removeBefore(first) == 0);
+        names.values().removeIf(playerId -> !postings.containsKey(playerId));
+    }
+
+    private List<AuditRecord> find(String playerName, long since, int limit) {
+        UUID playerId = names.get(playerName.toLowerCase(Locale.ROOT));
+        Postings list = playerId == null ? null : postings.get(playerId);
+        if (list == null)
+            return List.of();
+
+        List<AuditRecord> result = new ArrayList<>(Math.min(limit, list.size));
+        AuditSegment open = null;
+        for (int i = list.size - 1; i >= 0 && result.size() < limit; i--) {
+            long position = list.values[i];
+            AuditSegment segment = segments.get((int) (position >>> 32));
+            if (segment == null)
+                continue;
+            // Segments are in time order, everything before this one is older
+            if (segment.maxTime() < since)
+                break;
+
+            // Positions are grouped by segment, so at most one sealed file is open at a time
+            if (segment != open) {
+                closeReader(open);
+                open = segment;
+            }
+
+            try {
+                AuditRecord record = segment.read((int) position);
+                if (record.getTime() >= since)
+                    result.add(record);
+            } catch (IOException ex) {
+                logger.warning("[DiscordSocialSpy] Failed to read the audit log: " + ex.getMessage());
+            }
+        }
+        closeReader(open);
+        return result;
+    }
+
+    private void closeReader(AuditSegment segment) {
+        if (segment == null || segment == active)
+            return;
+        try {
+            segment.closeReader();
+        } catch (IOException ex) {
+            logger.warning("[DiscordSocialSpy] Failed to close the audit log: " + ex.getMessage());
+        }
+    }
+
+    private void closeSegments() {
+        for (AuditSegment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException ex) {
+                logger.warning("[DiscordSocialSpy] Failed to close the audit log: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Record positions of one player, ascending.
+     */
+    private static final class Postings {
+
+        long[] values = new long[8];
+        int size;
+
+        void add(long position) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = position;
+        }
+
+        /**
+         * @return the number of positions left
+         */
+        int removeBefore(long first) {
+            int index = Arrays.binarySearch(values, 0, size, first);
+            if (index < 0)
+                index = -index - 1;
+            if (index > 0) {
+                values = Arrays.copyOfRange(values, index, Math.max(size, index + 8));
+                size -= index;
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package net.siberanka.discordsocialspy.audit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * One audited event: who, when, where and the text.
+ * <p>
+ * Encoded as [byte type][long time][long uuid msb][long uuid lsb][utf name]
+ * [utf world][int x][int y][int z][utf text], about 60 bytes plus the text.
+ */
+public final class AuditRecord {
+
+    // Commands and chat are capped far below this, it only guards writeUTF
+    private static final int MAX_TEXT = 4096;
+
+    private final long time;
+    private final AuditType type;
+    private final UUID playerId;
+    private final String playerName;
+    private final String world;
+    private final int x;
+    private final int y;
+    private final int z;
+    private final String text;
+
+    public AuditRecord(long time, AuditType type, UUID playerId, String playerName,
+                       String world, int x, int y, int z, String text) {
+        this.time = time;
+        this.type = type;
+        this.playerId = playerId;
+        this.playerName = playerName;
+        this.world = world == null ? "" : world;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.text = text.length() > MAX_TEXT ? text.substring(0, MAX_TEXT) : text;
+    }
+
+    byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + text.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type.ordinal());
+        out.writeLong(time);
+        out.writeLong(playerId.getMostSignificantBits());
+        out.writeLong(playerId.getLeastSignificantBits());
+        out.writeUTF(playerName);
+        out.writeUTF(world);
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeInt(z);
+        out.writeUTF(text);
+        return bytes.toByteArray();
+    }
+
+    static AuditRecord decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        AuditType type = AuditType.byId(in.readUnsignedByte());
+        if (type == null)
+            throw new IOException("Unknown record type");
+        long time = in.readLong();
+        UUID playerId = new UUID(in.readLong(), in.readLong());
+        return new AuditRecord(time, type, playerId, in.readUTF(), in.readUTF(),
+                in.readInt(), in.readInt(), in.readInt(), in.readUTF());
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public AuditType getType() {
+        return type;
+    }
+
+    public UUID getPlayerId() {
+        return playerId;
+    }
+
+    public String getPlayerName() {
+        return playerName;
+    }
+
+    public String getWorld() {
+        return world;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    public String getText() {
+        return text;
+    }
+}
@@ -0,0 +1,354 @@
+package net.siberanka.discordsocialspy.audit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * One file of the audit log.
+ * <p>
+ * Records are appended as [int length][int crc32][payload] and never change.
+ * The offset of a record is its id inside the segment. When the segment is
+ * full it is sealed: the time range and the record offsets of every player
+ * are written to an index file next to it, so a restart reads the small index
+ * instead of scanning the segment.
+ * <p>
+ * Not thread safe, only used from the audit thread.
+ */
+final class AuditSegment {
+
+    static final String EXTENSION = ".seg";
+    private static final String INDEX_EXTENSION = ".idx";
+    private static final int HEADER = 2 * Integer.BYTES;
+    private static final int INDEX_MAGIC = 0x44535349;
+    private static final int INDEX_VERSION = 1;
+
+    final int id;
+    private final Path file;
+    private final Path indexFile;
+
+    private FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER);
+    private final CRC32 crc = new CRC32();
+
+    private long size;
+    private int records;
+    private long minTime = Long.MAX_VALUE;
+    private long maxTime = Long.MIN_VALUE;
+
+    // Record offsets per player, dropped once they are in the global index
+    private Map<UUID, Offsets> players = new HashMap<>();
+
+    AuditSegment(Path directory, int id) {
+        this.id = id;
+        String name = String.format(Locale.ROOT, "%08d", id);
+        this.file = directory.resolve(name + EXTENSION);
+        this.indexFile = directory.resolve(name + INDEX_EXTENSION);
+    }
+
+    /**
+     * @return the segment id of a file name, or -1 if it is not a segment
+     */
+    static int parseId(String fileName) {
+        if (!fileName.endsWith(EXTENSION) || fileName.length() != 8 + EXTENSION.length())
+            return -1;
+        try {
+            return Integer.parseInt(fileName.substring(0, 8));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    void create() throws IOException {
+        channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Reads the index file, or scans the records if there is no index or it
+     * does not belong to the current file.
+     *
+     * @return true if the segment is sealed
+     */
+    boolean load() throws IOException {
+        if (readIndex())
+            return true;
+        scan();
+        return false;
+    }
+
+    private boolean readIndex() {
+        if (!Files.exists(indexFile))
+            return false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION)
+                return false;
+            long indexedSize = in.readLong();
+            if (indexedSize != Files.size(file))
+                return false;
+
+            size = indexedSize;
+            records = in.readInt();
+            minTime = in.readLong();
+            maxTime = in.readLong();
+
+            int count = in.readInt();
+            players = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                UUID player = new UUID(in.readLong(), in.readLong());
+                Offsets offsets = new Offsets(in.readUTF());
+                int length = in.readInt();
+                offsets.values = new int[length];
+                for (int j = 0; j < length; j++)
+                    offsets.values[j] = in.readInt();
+                offsets.size = length;
+                players.put(player, offsets);
+            }
+            return true;
+        } catch (IOException ex) {
+            players = new HashMap<>();
+            size = 0;
+            records = 0;
+            minTime = Long.MAX_VALUE;
+            maxTime = Long.MIN_VALUE;
+            return false;
+        }
+    }
+
+    /**
+     * Reads every record and cuts off a torn or corrupt tail left behind by
+     * a crash.
+     */
+    private void scan() throws IOException {
+        long fileSize = Files.size(file);
+        long position = 0;
+
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+            while (position + HEADER <= fileSize) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 1 || position + HEADER + length > fileSize)
+                    break;
+
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (checksum != checksum(payload))
+                    break;
+
+                AuditRecord record;
+                try {
+                    record = AuditRecord.decode(payload);
+                } catch (IOException ex) {
+                    break;
+                }
+
+                indexRecord(record, (int) position);
+                position += HEADER + length;
+            }
+        } catch (EOFException ignored) {
+        }
+
+        size = position;
+        if (position < fileSize) {
+            try (FileChannel writer = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                writer.truncate(position);
+            }
+        }
+    }
+
+    /**
+     * Makes a loaded, unsealed segment the one records are appended to.
+     */
+    void reopen() throws IOException {
+        closeChannel();
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * @return the offset of the record
+     */
+    int append(AuditRecord record) throws IOException {
+        byte[] payload = record.encode();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + payload.length);
+        buffer.putInt(payload.length).putInt(checksum(payload)).put(payload).flip();
+
+        int offset = (int) size;
+        while (buffer.hasRemaining())
+            channel.write(buffer, size + buffer.position());
+
+        size += buffer.limit();
+        indexRecord(record, offset);
+        return offset;
+    }
+
+    AuditRecord read(int offset) throws IOException {
+        if (channel == null)
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        header.clear();
+        readFully(header, offset);
+        int length = header.getInt(0);
+        if (length < 1 || offset + HEADER + length > size)
+            throw new IOException("Bad record at " + offset + " in " + file.getFileName());
+
+        ByteBuffer body = ByteBuffer.allocate(length);
+        readFully(body, offset + HEADER);
+        if (header.getInt(Integer.BYTES) != checksum(body.array()))
+            throw new IOException("Checksum mismatch at " + offset + " in " + file.getFileName());
+        return AuditRecord.decode(body.array());
+    }
+
+    /**
+     * Closes the read-only file of a sealed segment, the next read opens it
+     * again.
+     */
+    void closeReader() throws IOException {
+        closeChannel();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException();
+        }
+    }
+
+    private void indexRecord(AuditRecord record, int offset) {
+        records++;
+        minTime = Math.min(minTime, record.getTime());
+        maxTime = Math.max(maxTime, record.getTime());
+        if (players != null) {
+            players.computeIfAbsent(record.getPlayerId(), k -> new Offsets(record.getPlayerName()))
+                    .add(record.getPlayerName(), offset);
+        }
+    }
+
+    /**
+     * Writes the index file and closes the file. Reads reopen it read-only.
+     */
+    void seal() throws IOException {
+        if (channel != null)
+            channel.force(true);
+        closeChannel();
+
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(size);
+            out.writeInt(records);
+            out.writeLong(minTime);
+            out.writeLong(maxTime);
+            out.writeInt(players.size());
+            for (Map.Entry<UUID, Offsets> entry : players.entrySet()) {
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                Offsets offsets = entry.getValue();
+                out.writeUTF(offsets.name);
+                out.writeInt(offsets.size);
+                for (int i = 0; i < offsets.size; i++)
+                    out.writeInt(offsets.values[i]);
+            }
+        }
+
+        try {
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        players = null;
+    }
+
+    Map<UUID, Offsets> players() {
+        return players;
+    }
+
+    /**
+     * Drops the per-player offsets of a sealed segment after they were
+     * copied into the global index.
+     */
+    void releasePlayers() {
+        players = null;
+    }
+
+    long size() {
+        return size;
+    }
+
+    int records() {
+        return records;
+    }
+
+    long minTime() {
+        return minTime;
+    }
+
+    long maxTime() {
+        return maxTime;
+    }
+
+    void close() throws IOException {
+        if (channel != null && channel.isOpen() && players != null)
+            channel.force(true);
+        closeChannel();
+    }
+
+    void delete() throws IOException {
+        closeChannel();
+        Files.deleteIfExists(indexFile);
+        Files.deleteIfExists(file);
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private int checksum(byte[] payload) {
+        crc.reset();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Growable list of the record offsets of one player, in write order.
+     */
+    static final class Offsets {
+
+        String name;
+        int[] values = new int[4];
+        int size;
+
+        Offsets(String name) {
+            this.name = name;
+        }
+
+        void add(String name, int offset) {
+            this.name = name;
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = offset;
+        }
+    }
+}
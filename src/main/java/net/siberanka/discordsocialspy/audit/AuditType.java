@@ -0,0 +1,29 @@
+package net.siberanka.discordsocialspy.audit;
+
+/**
+ * What an audit record is about. Stored by ordinal, new types may only be
+ * added at the end.
+ */
+public enum AuditType {
+
+    /** A logged command. */
+    COMMAND,
+
+    /** A command cancelled by the filter. */
+    BLOCKED_COMMAND,
+
+    /** A chat message cancelled by the filter. */
+    BLOCKED_CHAT,
+
+    /** A placed or edited sign. */
+    SIGN,
+
+    /** A sign cancelled by the filter. */
+    BLOCKED_SIGN;
+
+    private static final AuditType[] VALUES = values();
+
+    static AuditType byId(int id) {
+        return id >= 0 && id < VALUES.length ? VALUES[id] : null;
+    }
+}
@@ -0,0 +1,99 @@
+package net.siberanka.discordsocialspy.audit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * The last text written on a sign and who wrote it.
+ * <p>
+ * Encoded as [utf world][int x][int y][int z][long time][long uuid msb]
+ * [long uuid lsb][utf name][utf text].
+ */
+public final class SignEntry {
+
+    private final String world;
+    private final int x;
+    private final int y;
+    private final int z;
+    private final long time;
+    private final UUID playerId;
+    private final String playerName;
+    private final String text;
+
+    public SignEntry(String world, int x, int y, int z, long time, UUID playerId, String playerName, String text) {
+        this.world = world;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.time = time;
+        this.playerId = playerId;
+        this.playerName = playerName;
+        this.text = text;
+    }
+
+    byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + text.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(world);
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeInt(z);
+        out.writeLong(time);
+        out.writeLong(playerId.getMostSignificantBits());
+        out.writeLong(playerId.getLeastSignificantBits());
+        out.writeUTF(playerName);
+        out.writeUTF(text);
+        return bytes.toByteArray();
+    }
+
+    static SignEntry decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String world = in.readUTF();
+        int x = in.readInt();
+        int y = in.readInt();
+        int z = in.readInt();
+        long time = in.readLong();
+        UUID playerId = new UUID(in.readLong(), in.readLong());
+        return new SignEntry(world, x, y, z, time, playerId, in.readUTF(), in.readUTF());
+    }
+
+    boolean samePosition(SignEntry other) {
+        return x == other.x && y == other.y && z == other.z;
+    }
+
+    public String getWorld() {
+        return world;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public UUID getPlayerId() {
+        return playerId;
+    }
+
+    public String getPlayerName() {
+        return playerName;
+    }
+
+    public String getText() {
+        return text;
+    }
+}
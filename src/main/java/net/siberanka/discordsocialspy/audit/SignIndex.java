@@ -0,0 +1,374 @@
+package net.siberanka.discordsocialspy.audit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Where signs were written and by whom, for area queries.
+ * <p>
+ * Every world has a hash map from the packed chunk coordinates
+ * ({@code chunkX << 32 | chunkZ}) to the signs in that chunk, one entry per
+ * sign block with its latest text. A query visits only the chunks its
+ * radius touches, so its cost depends on the area and not on the number of
+ * stored signs.
+ * <p>
+ * Entries are appended to signs.dat as [int length][int crc32][payload] and
+ * loaded into memory on startup. Edits of a sign already in the index leave
+ * a dead record behind; the file is rewritten once most of it is dead.
+ * Everything runs on a single thread, like the {@link AuditLog}.
+ */
+public final class SignIndex {
+
+    private static final int HEADER = 2 * Integer.BYTES;
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final int COMPACT_MIN_RECORDS = 1024;
+
+    private final Path file;
+    private final Logger logger;
+    private final ScheduledExecutorService executor;
+
+    // Only used on the index thread
+    private final Map<String, LongObjectMap<ChunkSigns>> worlds = new HashMap<>();
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private long size;
+    private int records;
+    private int live;
+    private boolean failed;
+
+    private volatile boolean enabled = true;
+    private volatile long retentionMillis = TimeUnit.DAYS.toMillis(30);
+
+    public SignIndex(Path file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "DiscordSocialSpy-Signs");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Loads signs.dat in the background. Call it after setRetentionDays,
+     * loading already skips expired signs.
+     */
+    public void start() {
+        executor.execute(this::open);
+        executor.scheduleAtFixedRate(this::expire, HOUR, HOUR, TimeUnit.MILLISECONDS);
+    }
+
+    static long chunkKey(int chunkX, int chunkZ) {
+        return (long) chunkX << 32 | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param days 0 or less keeps everything
+     */
+    public void setRetentionDays(int days) {
+        retentionMillis = days <= 0 ? Long.MAX_VALUE : TimeUnit.DAYS.toMillis(days);
+    }
+
+    /**
+     * @param time when the sign was written, epoch millis
+     */
+    public void record(String world, int x, int y, int z, long time, UUID playerId, String playerName,
+                       String text) {
+        if (!enabled)
+            return;
+
+        SignEntry entry = new SignEntry(world, x, y, z, time, playerId, playerName, text);
+        try {
+            executor.execute(() -> append(entry));
+        } catch (RejectedExecutionException ignored) {
+            // shutting down
+        }
+    }
+
+    /**
+     * Finds the signs within a horizontal radius of a block.
+     *
+     * @param since oldest time to include, epoch millis
+     * @return the signs, newest first
+     */
+    public CompletableFuture<List<SignEntry>> near(String world, int x, int z, int radius, long since) {
+        try {
+            return CompletableFuture.supplyAsync(() -> find(world, x, z, radius, since), executor);
+        } catch (RejectedExecutionException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    public void close() {
+        try {
+            executor.execute(this::closeFile);
+        } catch (RejectedExecutionException ignored) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void open() {
+        try {
+            Files.createDirectories(file.getParent());
+            if (Files.exists(file))
+                load();
+
+            channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (records > COMPACT_MIN_RECORDS && records > live * 2)
+                compact();
+
+            logger.info("[DiscordSocialSpy] Sign index: " + live + " signs");
+        } catch (IOException ex) {
+            failed = true;
+            logger.warning("[DiscordSocialSpy] Failed to open the sign index, signs will not be indexed: "
+                    + ex.getMessage());
+        }
+    }
+
+    /**
+     * Reads every record, skipping expired ones, and cuts off a torn tail.
+     */
+    private void load() throws IOException {
+        long fileSize = Files.size(file);
+        long cutoff = cutoff();
+        long position = 0;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (position + HEADER <= fileSize) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 1 || position + HEADER + length > fileSize)
+                    break;
+
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (checksum != checksum(payload))
+                    break;
+
+                SignEntry entry;
+                try {
+                    entry = SignEntry.decode(payload);
+                } catch (IOException ex) {
+                    break;
+                }
+
+                records++;
+                if (entry.getTime() >= cutoff)
+                    index(entry);
+                position += HEADER + length;
+            }
+        } catch (EOFException ignored) {
+        }
+
+        size = position;
+        if (position < fileSize) {
+            try (FileChannel writer = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                writer.truncate(position);
+            }
+        }
+    }
+
+    private void append(SignEntry entry) {
+        if (failed || channel == null)
+            return;
+
+        try {
+            byte[] payload = entry.encode();
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER + payload.length);
+            buffer.putInt(payload.length).putInt(checksum(payload)).put(payload).flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer, size + buffer.position());
+            size += buffer.limit();
+            records++;
+        } catch (IOException ex) {
+            logger.warning("[DiscordSocialSpy] Failed to write to the sign index: " + ex.getMessage());
+        }
+        index(entry);
+    }
+
+    private void index(SignEntry entry) {
+        LongObjectMap<ChunkSigns> chunks = worlds.computeIfAbsent(entry.getWorld(), k -> new LongObjectMap<>());
+        ChunkSigns signs = chunks.computeIfAbsent(chunkKey(entry.getX() >> 4, entry.getZ() >> 4), k -> new ChunkSigns());
+        if (signs.put(entry))
+            live++;
+    }
+
+    private List<SignEntry> find(String world, int x, int z, int radius, long since) {
+        LongObjectMap<ChunkSigns> chunks = worlds.get(world);
+        if (chunks == null)
+            return List.of();
+
+        long radiusSquared = (long) radius * radius;
+        List<SignEntry> result = new ArrayList<>();
+
+        for (int cx = (x - radius) >> 4; cx <= (x + radius) >> 4; cx++) {
+            for (int cz = (z - radius) >> 4; cz <= (z + radius) >> 4; cz++) {
+                ChunkSigns signs = chunks.get(chunkKey(cx, cz));
+                if (signs == null)
+                    continue;
+
+                for (int i = 0; i < signs.size; i++) {
+                    SignEntry entry = signs.entries[i];
+                    long dx = entry.getX() - x;
+                    long dz = entry.getZ() - z;
+                    if (dx * dx + dz * dz <= radiusSquared && entry.getTime() >= since)
+                        result.add(entry);
+                }
+            }
+        }
+
+        result.sort(Comparator.comparingLong(SignEntry::getTime).reversed());
+        return result;
+    }
+
+    private void expire() {
+        if (failed)
+            return;
+
+        long cutoff = cutoff();
+        for (LongObjectMap<ChunkSigns> chunks : worlds.values())
+            chunks.forEachValue(signs -> live -= signs.removeBefore(cutoff));
+
+        if (records > COMPACT_MIN_RECORDS && records > live * 2) {
+            try {
+                compact();
+            } catch (IOException ex) {
+                logger.warning("[DiscordSocialSpy] Failed to compact the sign index: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Rewrites the file with only the live entries.
+     */
+    private void compact() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long written = 0;
+
+        try (OutputStream stream = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+            for (LongObjectMap<ChunkSigns> chunks : worlds.values()) {
+                List<SignEntry> entries = new ArrayList<>();
+                chunks.forEachValue(signs -> entries.addAll(Arrays.asList(signs.entries).subList(0, signs.size)));
+                for (SignEntry entry : entries) {
+                    byte[] payload = entry.encode();
+                    out.writeInt(payload.length);
+                    out.writeInt(checksum(payload));
+                    out.write(payload);
+                    written += HEADER + payload.length;
+                }
+            }
+        }
+
+        closeFile();
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        size = written;
+        records = live;
+    }
+
+    private long cutoff() {
+        long retention = retentionMillis;
+        return retention == Long.MAX_VALUE ? Long.MIN_VALUE : System.currentTimeMillis() - retention;
+    }
+
+    private int checksum(byte[] payload) {
+        crc.reset();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private void closeFile() {
+        if (channel == null)
+            return;
+        try {
+            channel.force(true);
+            channel.close();
+        } catch (IOException ex) {
+            logger.warning("[DiscordSocialSpy] Failed to close the sign index: " + ex.getMessage());
+        }
+        channel = null;
+    }
+
+    /**
+     * The signs of one chunk, one entry per block.
+     */
+    private static final class ChunkSigns {
+
+        SignEntry[] entries = new SignEntry[2];
+        int size;
+
+        /**
+         * @return true if the sign was not in the chunk yet
+         */
+        boolean put(SignEntry entry) {
+            for (int i = 0; i < size; i++) {
+                if (entries[i].samePosition(entry)) {
+                    entries[i] = entry;
+                    return false;
+                }
+            }
+            if (size == entries.length)
+                entries = Arrays.copyOf(entries, size * 2);
+            entries[size++] = entry;
+            return true;
+        }
+
+        /**
+         * @return the number of removed entries
+         */
+        int removeBefore(long cutoff) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (entries[i].getTime() >= cutoff)
+                    entries[kept++] = entries[i];
+            }
+            int removed = size - kept;
+            Arrays.fill(entries, kept, size, null);
+            size = kept;
+            return removed;
+        }
+    }
+}
@@ -1,33 +1,50 @@
 package net.siberanka.discordsocialspy.command;
 
-import net.kyori.adventure.text.minimessage.MiniMessage;
 import net.siberanka.discordsocialspy.DiscordSocialSpyPlugin;
+import net.siberanka.discordsocialspy.audit.AuditRecord;
+import net.siberanka.discordsocialspy.audit.SignEntry;
+import net.siberanka.discordsocialspy.filter.FilterEngine;
+import net.siberanka.discordsocialspy.listener.SignSubscribers;
 import net.siberanka.discordsocialspy.util.LanguageManager;
+import net.siberanka.discordsocialspy.worker.AsyncDispatcher;
+import net.siberanka.discordsocialspy.worker.DispatcherMetrics;
+import net.siberanka.discordsocialspy.worker.LatencyHistogram;
+import net.kyori.adventure.text.minimessage.MiniMessage;
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.command.*;
 import org.bukkit.entity.Player;
 import org.bukkit.help.HelpTopic;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class DiscordSocialSpyCommand implements CommandExecutor, TabCompleter {
 
+    private static final int LOOKUP_LIMIT = 10;
+    private static final int DEFAULT_RADIUS = 32;
+    private static final int MAX_RADIUS = 512;
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
     private final DiscordSocialSpyPlugin plugin;
     private final LanguageManager lang;
-    private final Map<UUID, Boolean> signNotify;
+    private final SignSubscribers signSubscribers;
     private volatile List<String> helpCache = null;
     private volatile boolean cacheBuilding = false;
 
-    public DiscordSocialSpyCommand(DiscordSocialSpyPlugin plugin, LanguageManager lang, Map<UUID, Boolean> signNotify) {
+    public DiscordSocialSpyCommand(DiscordSocialSpyPlugin plugin, LanguageManager lang, SignSubscribers signSubscribers) {
         this.plugin = plugin;
         this.lang = lang;
-        this.signNotify = signNotify;
+        this.signSubscribers = signSubscribers;
     }
 
-    private void send(CommandSender sender, String key) {
-        String msg = plugin.getConfig().getString("message-prefix") + lang.get(key);
-        sender.sendMessage(MiniMessage.miniMessage().deserialize(msg));
+    private void send(CommandSender sender, String key, String... values) {
+        sender.sendMessage(lang.prefixed(key).mini(values));
     }
 
     @Override
@@ -43,6 +60,11 @@ public class DiscordSocialSpyCommand implements CommandExecutor, TabCompleter {
             send(sender, "help-reload");
             send(sender, "help-add");
             send(sender, "help-remove");
+            send(sender, "help-queue");
+            send(sender, "help-filter");
+            send(sender, "help-stats");
+            send(sender, "help-lookup");
+            send(sender, "help-signs");
             return true;
         }
 
@@ -59,6 +81,192 @@ public class DiscordSocialSpyCommand implements CommandExecutor, TabCompleter {
             return true;
         }
 
+        if (args[0].equalsIgnoreCase("queue")) {
+
+            AsyncDispatcher dispatcher = plugin.getDispatcher();
+
+            send(sender, "queue-stats",
+                    "size", String.valueOf(dispatcher.getQueueSize()),
+                    "capacity", String.valueOf(dispatcher.getQueueCapacity()),
+                    "policy", dispatcher.getOverflowPolicy().name().toLowerCase(Locale.ROOT),
+                    "accepted", String.valueOf(dispatcher.getAcceptedCount()),
+                    "dropped", String.valueOf(dispatcher.getDroppedCount()),
+                    "coalesced", String.valueOf(dispatcher.getCoalescedCount()),
+                    "spilled", String.valueOf(dispatcher.getSpilledCount()));
+            return true;
+        }
+
+        if (args[0].equalsIgnoreCase("filter")) {
+
+            FilterEngine filter = plugin.getFilter();
+            long hits = filter.getCacheHits();
+            long misses = filter.getCacheMisses();
+            long lookups = hits + misses;
+
+            send(sender, "filter-stats",
+                    "size", String.valueOf(filter.getCacheSize()),
+                    "capacity", String.valueOf(filter.getCacheCapacity()),
+                    "hits", String.valueOf(hits),
+                    "misses", String.valueOf(misses),
+                    "rate", lookups == 0 ? "0" : String.valueOf(hits * 100 / lookups));
+            return true;
+        }
+
+        if (args[0].equalsIgnoreCase("stats")) {
+
+            AsyncDispatcher dispatcher = plugin.getDispatcher();
+            DispatcherMetrics metrics = dispatcher.getMetrics();
+            FilterEngine filter = plugin.getFilter();
+
+            StringBuilder statuses = new StringBuilder();
+            for (Map.Entry<Integer, Long> entry : metrics.getStatuses().entrySet()) {
+                if (statuses.length() > 0)
+                    statuses.append(", ");
+                statuses.append(entry.getKey()).append(" x").append(entry.getValue());
+            }
+
+            long lookups = filter.getCacheHits() + filter.getCacheMisses();
+
+            send(sender, "stats-header");
+            send(sender, "stats-queue",
+                    "size", String.valueOf(dispatcher.getQueueSize()),
+                    "accepted", String.valueOf(dispatcher.getAcceptedCount()),
+                    "delivered", String.valueOf(metrics.getDelivered()),
+                    "dropped", String.valueOf(dispatcher.getDroppedCount()),
+                    "events", String.valueOf(plugin.getEventPipeline().getQueueSize()),
+                    "events_dropped", String.valueOf(plugin.getEventPipeline().getDroppedCount()));
+            send(sender, "stats-requests",
+                    "requests", String.valueOf(metrics.getRequests()),
+                    "retries", String.valueOf(metrics.getRetries()),
+                    "failovers", String.valueOf(metrics.getFailovers()),
+                    "rate_limited", String.valueOf(metrics.getRateLimited()),
+                    "errors", String.valueOf(metrics.getErrors()),
+                    "statuses", statuses.length() == 0 ? "-" : statuses.toString());
+            sendLatency(sender, "stats-request-latency", metrics.getRequestLatency());
+            sendLatency(sender, "stats-delivery-latency", metrics.getDeliveryLatency());
+            send(sender, "stats-filter",
+                    "checked", String.valueOf(filter.getChecked()),
+                    "words", String.valueOf(filter.getWordHits()),
+                    "regex", String.valueOf(filter.getRegexHits()),
+                    "rate", lookups == 0 ? "0" : String.valueOf(filter.getCacheHits() * 100 / lookups));
+            return true;
+        }
+
+        if (args[0].equalsIgnoreCase("lookup")) {
+
+            if (!sender.hasPermission("discordsocialspy.lookup")) {
+                send(sender, "no-permission");
+                return true;
+            }
+
+            if (args.length < 2) {
+                send(sender, "usage-lookup");
+                return true;
+            }
+
+            long since = 0;
+            if (args.length > 2) {
+                long duration = parseDuration(args[2]);
+                if (duration < 0) {
+                    send(sender, "usage-lookup");
+                    return true;
+                }
+                since = System.currentTimeMillis() - duration;
+            }
+
+            String player = MiniMessage.miniMessage().escapeTags(args[1]);
+            long started = System.nanoTime();
+
+            plugin.getAuditLog().lookup(args[1], since, LOOKUP_LIMIT).whenComplete((records, error) -> {
+                if (error != null || records.isEmpty()) {
+                    send(sender, "lookup-none", "player", player);
+                    return;
+                }
+
+                send(sender, "lookup-header",
+                        "player", player,
+                        "count", String.valueOf(records.size()),
+                        "ms", String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)));
+
+                for (AuditRecord record : records) {
+                    sender.sendMessage(lang.template("lookup-line").mini(
+                            "time", TIME_FORMAT.format(Instant.ofEpochMilli(record.getTime())),
+                            "type", lang.get("audit-" + record.getType().name().toLowerCase(Locale.ROOT).replace('_', '-')),
+                            "location", MiniMessage.miniMessage().escapeTags(record.getWorld())
+                                    + " " + record.getX() + ", " + record.getY() + ", " + record.getZ(),
+                            "text", MiniMessage.miniMessage().escapeTags(record.getText())));
+                }
+            });
+            return true;
+        }
+
+        if (args[0].equalsIgnoreCase("signs")) {
+
+            if (!sender.hasPermission("discordsocialspy.lookup")) {
+                send(sender, "no-permission");
+                return true;
+            }
+
+            if (!(sender instanceof Player)) {
+                send(sender, "players-only");
+                return true;
+            }
+
+            if (args.length < 2 || !args[1].equalsIgnoreCase("near")) {
+                send(sender, "usage-signs");
+                return true;
+            }
+
+            int radius = DEFAULT_RADIUS;
+            if (args.length > 2) {
+                try {
+                    radius = Integer.parseInt(args[2]);
+                } catch (NumberFormatException e) {
+                    radius = -1;
+                }
+                if (radius < 1 || radius > MAX_RADIUS) {
+                    send(sender, "usage-signs");
+                    return true;
+                }
+            }
+
+            long since = 0;
+            if (args.length > 3) {
+                long duration = parseDuration(args[3]);
+                if (duration < 0) {
+                    send(sender, "usage-signs");
+                    return true;
+                }
+                since = System.currentTimeMillis() - duration;
+            }
+
+            Location loc = ((Player) sender).getLocation();
+            String world = loc.getWorld() != null ? loc.getWorld().getName() : "world";
+            String radiusText = String.valueOf(radius);
+            long started = System.nanoTime();
+
+            plugin.getSignIndex().near(world, loc.getBlockX(), loc.getBlockZ(), radius, since).whenComplete((signs, error) -> {
+                if (error != null || signs.isEmpty()) {
+                    send(sender, "signs-none", "radius", radiusText);
+                    return;
+                }
+
+                send(sender, "signs-header",
+                        "count", String.valueOf(signs.size()),
+                        "radius", radiusText,
+                        "ms", String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)));
+
+                for (SignEntry sign : signs.subList(0, Math.min(LOOKUP_LIMIT, signs.size()))) {
+                    sender.sendMessage(lang.template("signs-line").mini(
+                            "time", TIME_FORMAT.format(Instant.ofEpochMilli(sign.getTime())),
+                            "player", sign.getPlayerName(),
+                            "location", sign.getX() + ", " + sign.getY() + ", " + sign.getZ(),
+                            "text", MiniMessage.miniMessage().escapeTags(sign.getText())));
+                }
+            });
+            return true;
+        }
+
         if (args[0].equalsIgnoreCase("sign")) {
 
             if (!(sender instanceof Player)) {
@@ -69,11 +277,7 @@ public class DiscordSocialSpyCommand implements CommandExecutor, TabCompleter {
             Player p = (Player) sender;
 
             if (args.length > 1 && args[1].equalsIgnoreCase("toggle")) {
-                UUID id = p.getUniqueId();
-                boolean current = signNotify.getOrDefault(id, plugin.getConfig().getBoolean("sign-notify"));
-                boolean newState = !current;
-
-                signNotify.put(id, newState);
+                boolean newState = signSubscribers.toggle(p);
 
                 if (newState) {
                     send(sender, "sign-notify-enabled");
@@ -127,10 +331,7 @@ public class DiscordSocialSpyCommand implements CommandExecutor, TabCompleter {
                 plugin.reloadAll();
                 clearCacheAsync();
 
-                String msg = plugin.getConfig().getString("message-prefix") +
-                        lang.get("added").replace("{cmd}", input);
-
-                sender.sendMessage(MiniMessage.miniMessage().deserialize(msg));
+                send(sender, "added", "cmd", input);
                 return true;
             }
 
@@ -147,10 +348,7 @@ public class DiscordSocialSpyCommand implements CommandExecutor, TabCompleter {
                 plugin.reloadAll();
                 clearCacheAsync();
 
-                String msg = plugin.getConfig().getString("message-prefix") +
-                        lang.get("removed").replace("{cmd}", input);
-
-                sender.sendMessage(MiniMessage.miniMessage().deserialize(msg));
+                send(sender, "removed", "cmd", input);
                 return true;
             }
 
@@ -161,6 +359,45 @@ public class DiscordSocialSpyCommand implements CommandExecutor, TabCompleter {
         return true;
     }
 
+    private void sendLatency(CommandSender sender, String key, LatencyHistogram histogram) {
+        send(sender, key,
+                "p50", millis(histogram.getPercentile(50)),
+                "p99", millis(histogram.getPercentile(99)),
+                "max", millis(histogram.getMax()));
+    }
+
+    private static String millis(long micros) {
+        return String.format(Locale.ROOT, "%.1f", micros / 1000.0);
+    }
+
+    /**
+     * Parses durations like 45s, 30m, 12h, 2d or 1w.
+     *
+     * @return the duration in milliseconds, or -1 if it is not valid
+     */
+    private static long parseDuration(String input) {
+        if (input.length() < 2)
+            return -1;
+
+        long amount;
+        try {
+            amount = Long.parseLong(input.substring(0, input.length() - 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        if (amount < 0)
+            return -1;
+
+        switch (Character.toLowerCase(input.charAt(input.length() - 1))) {
+            case 's': return TimeUnit.SECONDS.toMillis(amount);
+            case 'm': return TimeUnit.MINUTES.toMillis(amount);
+            case 'h': return TimeUnit.HOURS.toMillis(amount);
+            case 'd': return TimeUnit.DAYS.toMillis(amount);
+            case 'w': return TimeUnit.DAYS.toMillis(amount * 7);
+            default: return -1;
+        }
+    }
+
     private void clearCacheAsync() {
         helpCache = null;
         cacheBuilding = false;
@@ -207,11 +444,27 @@ public class DiscordSocialSpyCommand implements CommandExecutor, TabCompleter {
             rebuildCacheAsync();
 
         if (args.length == 1)
-            return Arrays.asList("reload", "cmd", "sign");
+            return Arrays.asList("reload", "cmd", "sign", "signs", "queue", "filter", "stats", "lookup");
+
+        // null lets the server suggest online player names
+        if (args.length == 2 && args[0].equalsIgnoreCase("lookup"))
+            return null;
+
+        if (args.length == 3 && args[0].equalsIgnoreCase("lookup"))
+            return Arrays.asList("1h", "1d", "7d");
 
         if (args.length == 2 && args[0].equalsIgnoreCase("sign"))
             return Collections.singletonList("toggle");
 
+        if (args.length == 2 && args[0].equalsIgnoreCase("signs"))
+            return Collections.singletonList("near");
+
+        if (args.length == 3 && args[0].equalsIgnoreCase("signs"))
+            return Arrays.asList("16", "32", "64");
+
+        if (args.length == 4 && args[0].equalsIgnoreCase("signs"))
+            return Arrays.asList("1h", "1d", "7d");
+
         if (args.length == 2 && args[0].equalsIgnoreCase("cmd"))
             return Arrays.asList("add", "remove");
 
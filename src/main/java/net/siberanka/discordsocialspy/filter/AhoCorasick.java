@@ -0,0 +1,195 @@
+package net.siberanka.discordsocialspy.filter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Case-insensitive Aho-Corasick automaton over a fixed set of terms.
+ * A scan visits every character of the text once, no matter how many terms
+ * were compiled in. Characters are folded with {@link Character#toLowerCase(char)}
+ * one by one, so match offsets always refer to the original text.
+ */
+final class AhoCorasick {
+
+    /**
+     * Receives matches during a scan.
+     */
+    interface MatchListener {
+
+        /**
+         * @param term index of the term in the list given to the constructor
+         * @param start first character of the match
+         * @param end   character after the match
+         * @return false to stop the scan
+         */
+        boolean onMatch(int term, int start, int end);
+    }
+
+    private static final int[] NO_TERMS = new int[0];
+
+    // per node: sorted edge characters and their target nodes
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] fail;
+    // terms ending exactly at a node, and the next node on the fail chain that ends terms
+    private final int[][] terms;
+    private final int[] dictionary;
+    private final int[] termLengths;
+
+    AhoCorasick(List<String> termList) {
+
+        List<Map<Character, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> ends = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        ends.add(new ArrayList<>());
+
+        termLengths = new int[termList.size()];
+
+        for (int t = 0; t < termList.size(); t++) {
+            String term = termList.get(t);
+            termLengths[t] = term.length();
+
+            int node = 0;
+            for (int i = 0; i < term.length(); i++) {
+                char c = Character.toLowerCase(term.charAt(i));
+                Integer next = trie.get(node).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    ends.add(new ArrayList<>());
+                    trie.get(node).put(c, next);
+                }
+                node = next;
+            }
+            ends.get(node).add(t);
+        }
+
+        int size = trie.size();
+        edgeChars = new char[size][];
+        edgeTargets = new int[size][];
+        terms = new int[size][];
+        fail = new int[size];
+        dictionary = new int[size];
+
+        for (int n = 0; n < size; n++) {
+            Map<Character, Integer> edges = trie.get(n);
+            edgeChars[n] = new char[edges.size()];
+            edgeTargets[n] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> e : edges.entrySet()) {
+                edgeChars[n][i] = e.getKey();
+                edgeTargets[n][i] = e.getValue();
+                i++;
+            }
+            terms[n] = ends.get(n).isEmpty()
+                    ? NO_TERMS
+                    : ends.get(n).stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        // Breadth first, so the fail target of a node is always finished before the node
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int child : edgeTargets[0]) {
+            fail[child] = 0;
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int i = 0; i < edgeChars[node].length; i++) {
+                char c = edgeChars[node][i];
+                int child = edgeTargets[node][i];
+
+                int f = fail[node];
+                while (f != 0 && next(f, c) < 0)
+                    f = fail[f];
+                int target = next(f, c);
+                fail[child] = target < 0 || target == child ? 0 : target;
+
+                dictionary[child] = terms[fail[child]].length > 0 ? fail[child] : dictionary[fail[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return termLengths.length == 0;
+    }
+
+    /**
+     * Reports every occurrence of every term in the text.
+     *
+     * @return false if the listener stopped the scan
+     */
+    boolean scan(CharSequence text, MatchListener listener) {
+        int state = 0;
+        int length = text.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+
+            int next;
+            while ((next = next(state, c)) < 0 && state != 0)
+                state = fail[state];
+            state = next < 0 ? 0 : next;
+
+            for (int node = terms[state].length > 0 ? state : dictionary[state]; node != 0; node = dictionary[node]) {
+                for (int term : terms[node]) {
+                    if (!listener.onMatch(term, i + 1 - termLengths[term], i + 1))
+                        return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lowercases char by char, like the scan does, so lengths never change.
+     */
+    static String fold(String term) {
+        char[] chars = term.toCharArray();
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = Character.toLowerCase(chars[i]);
+        return new String(chars);
+    }
+
+    private int next(int node, char c) {
+        int index = Arrays.binarySearch(edgeChars[node], c);
+        return index < 0 ? -1 : edgeTargets[node][index];
+    }
+
+    /**
+     * Deduplicating builder so the same term listed twice does not double the work.
+     */
+    static final class Builder {
+
+        private final Map<String, Integer> index = new HashMap<>();
+        private final List<String> terms = new ArrayList<>();
+
+        /**
+         * @return the term index used in {@link MatchListener#onMatch}
+         */
+        int add(String term) {
+            return index.computeIfAbsent(fold(term), t -> {
+                terms.add(t);
+                return terms.size() - 1;
+            });
+        }
+
+        int size() {
+            return terms.size();
+        }
+
+        String term(int id) {
+            return terms.get(id);
+        }
+
+        AhoCorasick build() {
+            return new AhoCorasick(terms);
+        }
+    }
+}
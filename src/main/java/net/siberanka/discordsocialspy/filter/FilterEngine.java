@@ -0,0 +1,307 @@
+package net.siberanka.discordsocialspy.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Immutable, precompiled form of the filter section of config.yml.
+ * <p>
+ * filter.words and filter.whitelisted-words are compiled into one
+ * Aho-Corasick automaton, so a message is scanned once for all of them.
+ * Terms and messages are folded by {@link TextNormalizer} first, so look-alike
+ * letters, leetspeak, accents, zero-width characters and spaced out words
+ * still match. Whitelisted terms exempt only their own span of the message.
+ * filter.regex entries are joined into a single alternation where possible;
+ * patterns with back references cannot be joined and are kept separate.
+ * Verdicts of recent messages are cached, so repeated spam skips the scan.
+ */
+public final class FilterEngine {
+
+    public static final String CAUSE_WORD = "WORD";
+    public static final String CAUSE_REGEX = "REGEX";
+
+    // longer texts are rare and would make every cache entry expensive
+    private static final int MAX_CACHED_LENGTH = 512;
+
+    private static final FilterEngine DISABLED = new FilterEngine(
+            new AhoCorasick(Collections.emptyList()), new boolean[0], new boolean[0], new boolean[0], null,
+            Collections.emptyList(), 0);
+
+    private final AhoCorasick terms;
+    private final boolean[] blocked;
+    private final boolean[] whitelisted;
+    // terms without separators, the only ones that can match the joined view
+    private final boolean[] joinable;
+    private final Pattern combinedRegex;
+    private final List<Pattern> separateRegex;
+    private final VerdictCache cache;
+
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder wordHits = new LongAdder();
+    private final LongAdder regexHits = new LongAdder();
+
+    private FilterEngine(AhoCorasick terms, boolean[] blocked, boolean[] whitelisted, boolean[] joinable,
+            Pattern combinedRegex, List<Pattern> separateRegex, int cacheSize) {
+        this.terms = terms;
+        this.blocked = blocked;
+        this.whitelisted = whitelisted;
+        this.joinable = joinable;
+        this.combinedRegex = combinedRegex;
+        this.separateRegex = separateRegex;
+        this.cache = cacheSize > 0 ? new VerdictCache(cacheSize) : null;
+    }
+
+    public static FilterEngine disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return this != DISABLED;
+    }
+
+    /**
+     * @param cacheSize number of verdicts to keep, 0 disables the cache
+     */
+    public static FilterEngine compile(List<String> words, List<String> whitelist, List<String> regexes,
+            int cacheSize, Logger logger) {
+
+        AhoCorasick.Builder builder = new AhoCorasick.Builder();
+        List<Integer> wordIds = new ArrayList<>();
+        List<Integer> whitelistIds = new ArrayList<>();
+
+        // A blank entry would match every message
+        for (String w : words)
+            if (w != null && !(w = TextNormalizer.fold(w)).isEmpty())
+                wordIds.add(builder.add(w));
+        for (String w : whitelist)
+            if (w != null && !(w = TextNormalizer.fold(w)).isEmpty())
+                whitelistIds.add(builder.add(w));
+
+        boolean[] blocked = new boolean[builder.size()];
+        boolean[] whitelisted = new boolean[builder.size()];
+        boolean[] joinable = new boolean[builder.size()];
+        for (int id : wordIds)
+            blocked[id] = true;
+        for (int id : whitelistIds)
+            whitelisted[id] = true;
+        for (int id = 0; id < builder.size(); id++)
+            joinable[id] = isJoinable(builder.term(id));
+
+        List<Pattern> valid = new ArrayList<>();
+        List<String> joinableRegex = new ArrayList<>(); // valid patterns without back references
+        List<Pattern> separate = new ArrayList<>();
+
+        for (String regex : regexes) {
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+            } catch (PatternSyntaxException e) {
+                logger.warning("Invalid regex in filter: " + regex);
+                continue;
+            }
+            valid.add(pattern);
+
+            if (hasBackReference(regex))
+                separate.add(pattern);
+            else
+                joinableRegex.add(regex);
+        }
+
+        Pattern combined = null;
+        if (joinableRegex.size() == 1) {
+            combined = Pattern.compile(joinableRegex.get(0), Pattern.CASE_INSENSITIVE);
+        } else if (joinableRegex.size() > 1) {
+            try {
+                // Non-capturing groups keep inline flags like (?i) local to their own pattern
+                combined = Pattern.compile("(?:" + String.join(")|(?:", joinableRegex) + ")",
+                        Pattern.CASE_INSENSITIVE);
+            } catch (PatternSyntaxException e) {
+                // e.g. the same named group in two patterns, fall back to one pattern each
+                separate = valid;
+            }
+        }
+
+        return new FilterEngine(builder.build(), blocked, whitelisted, joinable, combined, List.copyOf(separate),
+                cacheSize);
+    }
+
+    private static boolean isJoinable(String term) {
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (TextNormalizer.isSeparator(c) || Character.isWhitespace(c))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean hasBackReference(String regex) {
+        for (int i = 0; i + 1 < regex.length(); i++) {
+            if (regex.charAt(i) != '\\')
+                continue;
+            char next = regex.charAt(i + 1);
+            if ((next >= '1' && next <= '9') || next == 'k')
+                return true;
+            i++; // skip the escaped character
+        }
+        return false;
+    }
+
+    /**
+     * Whitelisted terms only exempt the characters they cover: a word or regex
+     * hit is ignored when it lies completely inside a whitelisted span, any
+     * other hit still blocks the message. Terms are matched on the folded text,
+     * regexes on the original text; all spans are in original offsets.
+     *
+     * @return {@link #CAUSE_WORD}, {@link #CAUSE_REGEX} or null if the text is allowed
+     */
+    public String getBlockCause(String text) {
+        if (text == null || text.isEmpty())
+            return null;
+
+        String cause = lookup(text);
+        checked.increment();
+        if (CAUSE_WORD.equals(cause))
+            wordHits.increment();
+        else if (CAUSE_REGEX.equals(cause))
+            regexHits.increment();
+        return cause;
+    }
+
+    private String lookup(String text) {
+        if (cache == null || text.length() > MAX_CACHED_LENGTH)
+            return evaluate(text);
+
+        String cached = cache.get(text);
+        if (cached != null)
+            return cached.isEmpty() ? null : cached;
+
+        String cause = evaluate(text);
+        cache.put(text, cause);
+        return cause;
+    }
+
+    private String evaluate(String text) {
+        // One pass collects both kinds, a whitelist span may be reported after the word it covers
+        Spans allowed = new Spans();
+        Spans words = new Spans();
+        if (!terms.isEmpty()) {
+            TextNormalizer.Normalized normalized = TextNormalizer.normalize(text);
+
+            terms.scan(normalized.text(), (term, start, end) -> {
+                int from = normalized.originalStart(start);
+                int to = normalized.originalEnd(end - 1);
+                if (whitelisted[term])
+                    allowed.add(from, to);
+                else if (blocked[term])
+                    words.add(from, to);
+                return true;
+            });
+
+            if (normalized.hasJoined()) {
+                terms.scan(normalized.joinedText(), (term, start, end) -> {
+                    if (blocked[term] && joinable[term])
+                        words.add(normalized.joinedOriginalStart(start), normalized.joinedOriginalEnd(end - 1));
+                    return true;
+                });
+            }
+        }
+
+        for (int i = 0; i < words.size; i++) {
+            if (!allowed.covers(words.start(i), words.end(i)))
+                return CAUSE_WORD;
+        }
+
+        if (combinedRegex != null && findOutside(combinedRegex, text, allowed))
+            return CAUSE_REGEX;
+
+        for (Pattern pattern : separateRegex) {
+            if (findOutside(pattern, text, allowed))
+                return CAUSE_REGEX;
+        }
+
+        return null;
+    }
+
+    public long getChecked() {
+        return checked.sum();
+    }
+
+    public long getWordHits() {
+        return wordHits.sum();
+    }
+
+    public long getRegexHits() {
+        return regexHits.sum();
+    }
+
+    public int getCacheSize() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    public int getCacheCapacity() {
+        return cache == null ? 0 : cache.capacity();
+    }
+
+    public long getCacheHits() {
+        return cache == null ? 0 : cache.hits();
+    }
+
+    public long getCacheMisses() {
+        return cache == null ? 0 : cache.misses();
+    }
+
+    private static boolean findOutside(Pattern pattern, String text, Spans allowed) {
+        Matcher matcher = pattern.matcher(text);
+        if (allowed.size == 0)
+            return matcher.find();
+
+        int from = 0;
+        while (from <= text.length() && matcher.find(from)) {
+            if (!allowed.covers(matcher.start(), matcher.end()))
+                return true;
+            // A covered match may hide an overlapping one that is not covered
+            from = matcher.start() + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Growable list of [start, end) character ranges.
+     */
+    private static final class Spans {
+
+        private int[] bounds = new int[8];
+        private int size;
+
+        void add(int start, int end) {
+            if (size * 2 == bounds.length)
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            bounds[size * 2] = start;
+            bounds[size * 2 + 1] = end;
+            size++;
+        }
+
+        int start(int i) {
+            return bounds[i * 2];
+        }
+
+        int end(int i) {
+            return bounds[i * 2 + 1];
+        }
+
+        boolean covers(int start, int end) {
+            for (int i = 0; i < size; i++) {
+                if (start(i) <= start && end <= end(i))
+                    return true;
+            }
+            return false;
+        }
+    }
+}
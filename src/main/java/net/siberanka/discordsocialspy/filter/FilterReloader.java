@@ -0,0 +1,62 @@
+package net.siberanka.discordsocialspy.filter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Holds the active {@link FilterEngine} and swaps in new ones.
+ * <p>
+ * A new rule set is compiled off-thread while chat keeps using the current
+ * engine, then published with a single volatile write. Every reload gets a
+ * generation number; a compile that finishes after a newer reload started
+ * is discarded, so the last edit always wins.
+ */
+public final class FilterReloader {
+
+    private final Logger logger;
+
+    private volatile FilterEngine current = FilterEngine.disabled();
+    private long generation;
+
+    public FilterReloader(Logger logger) {
+        this.logger = logger;
+    }
+
+    public FilterEngine get() {
+        return current;
+    }
+
+    /**
+     * Publishes an engine right away, e.g. when the plugin is enabled and
+     * no chat can arrive yet.
+     */
+    public synchronized void set(FilterEngine engine) {
+        generation++;
+        current = engine;
+    }
+
+    /**
+     * Compiles a new engine on a background thread and publishes it unless a
+     * newer reload has started in the meantime. A failed compile keeps the
+     * current rules.
+     */
+    public CompletableFuture<FilterEngine> reload(Supplier<FilterEngine> compiler) {
+        long target;
+        synchronized (this) {
+            target = ++generation;
+        }
+
+        return CompletableFuture.supplyAsync(compiler).whenComplete((engine, error) -> {
+            if (error != null) {
+                logger.warning("[DiscordSocialSpy] Failed to compile filter rules, keeping the current ones: "
+                        + error.getMessage());
+                return;
+            }
+            synchronized (this) {
+                if (generation == target)
+                    current = engine;
+            }
+        });
+    }
+}
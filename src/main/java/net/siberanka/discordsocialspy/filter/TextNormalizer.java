@@ -0,0 +1,317 @@
+package net.siberanka.discordsocialspy.filter;
+
+import java.nio.CharBuffer;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Folds text into the form the word filter matches against.
+ * <p>
+ * Every code point is mapped on its own: compatibility decomposition (NFKD,
+ * which folds full-width and styled letters like NFKC does), removal of
+ * accents and zero-width/format characters, lowercasing and folding of
+ * common Cyrillic/Greek/Armenian look-alikes. Results for the BMP are kept in
+ * a fixed table filled on first use, so a message costs one array lookup per
+ * character and the table never grows past 64K entries.
+ * <p>
+ * The leetspeak map (4 → a, $ → s, ...) is only applied to words that also
+ * contain a letter, so "a55" reads as "ass" but a plain number like "455"
+ * stays a number.
+ * <p>
+ * Two views are produced, each with a map back to the original offsets:
+ * the folded text, and a joined text where separators between single
+ * characters are removed so that "f.u.c.k" or "f u c k" reads as "fuck".
+ */
+final class TextNormalizer {
+
+    private static final String[] ASCII = new String[128];
+    private static final char[] LEET = new char[128];
+    private static final Map<Integer, String> CONFUSABLES = new HashMap<>();
+
+    // Folded BMP code points, filled on first use. A racy write only computes
+    // the same immutable string twice.
+    private static final String[] BMP = new String[Character.MAX_VALUE + 1];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            ASCII[c] = String.valueOf(Character.toLowerCase(c));
+            LEET[c] = c;
+        }
+
+        LEET['0'] = 'o';
+        LEET['1'] = 'i';
+        LEET['3'] = 'e';
+        LEET['4'] = 'a';
+        LEET['5'] = 's';
+        LEET['7'] = 't';
+        LEET['8'] = 'b';
+        LEET['@'] = 'a';
+        LEET['$'] = 's';
+        LEET['!'] = 'i';
+
+        // Cyrillic
+        confusable("аa", "вb", "еe", "ёe", "кk", "мm", "нh", "оo", "рp", "сc", "тt", "уy", "хx", "іi", "їi",
+                "јj", "ѕs", "ԁd", "ԛq", "ԝw", "ьb", "ɡg");
+        // Greek
+        confusable("αa", "βb", "εe", "ηn", "ιi", "κk", "μu", "νv", "οo", "ρp", "τt", "υu", "χx", "ωw");
+        // Armenian
+        confusable("սu", "օo", "ցg", "հh", "ոn", "քp", "ւl");
+    }
+
+    private static void confusable(String... pairs) {
+        for (String pair : pairs)
+            CONFUSABLES.put(pair.codePointAt(0), pair.substring(pair.offsetByCodePoints(0, 1)));
+    }
+
+    private TextNormalizer() {
+    }
+
+    /**
+     * Folds a filter term the same way message text is folded.
+     */
+    static String fold(String term) {
+        StringBuilder out = new StringBuilder(term.length());
+        for (int start = 0; start < term.length();) {
+            int end = tokenEnd(term, start);
+            boolean leet = hasLetter(term, start, end);
+
+            for (int i = start; i < end;) {
+                int cp = term.codePointAt(i);
+                String folded = fold(cp);
+                for (int k = 0; k < folded.length(); k++)
+                    out.append(leet ? leet(folded.charAt(k)) : folded.charAt(k));
+                i += Character.charCount(cp);
+            }
+            start = end;
+        }
+        return out.toString();
+    }
+
+    /**
+     * True for characters the joined view removes.
+     */
+    static boolean isSeparator(char c) {
+        return ".,-_*'`~|/\\:;+=^\"".indexOf(c) >= 0;
+    }
+
+    static Normalized normalize(String text) {
+        Normalized out = new Normalized(text.length());
+
+        for (int start = 0; start < text.length();) {
+            int end = tokenEnd(text, start);
+            boolean leet = hasLetter(text, start, end);
+
+            for (int i = start; i < end;) {
+                int cp = text.codePointAt(i);
+                int next = i + Character.charCount(cp);
+
+                String folded = fold(cp);
+                for (int k = 0; k < folded.length(); k++) {
+                    char c = folded.charAt(k);
+                    out.add(leet ? leet(c) : c, i, next);
+                }
+
+                i = next;
+            }
+            start = end;
+        }
+
+        out.join();
+        return out;
+    }
+
+    /**
+     * @return the end of the whitespace or non-whitespace run starting at start
+     */
+    private static int tokenEnd(String text, int start) {
+        boolean space = Character.isWhitespace(text.codePointAt(start));
+        int i = start;
+        while (i < text.length()) {
+            int cp = text.codePointAt(i);
+            if (Character.isWhitespace(cp) != space)
+                break;
+            i += Character.charCount(cp);
+        }
+        return i;
+    }
+
+    private static boolean hasLetter(String text, int start, int end) {
+        for (int i = start; i < end;) {
+            int cp = text.codePointAt(i);
+            String folded = fold(cp);
+            for (int k = 0; k < folded.length(); k++) {
+                if (Character.isLetter(folded.charAt(k)))
+                    return true;
+            }
+            i += Character.charCount(cp);
+        }
+        return false;
+    }
+
+    private static char leet(char c) {
+        return c < 128 ? LEET[c] : c;
+    }
+
+    private static String fold(int cp) {
+        if (cp < 128)
+            return ASCII[cp];
+        if (cp > Character.MAX_VALUE)
+            return computeFold(cp); // styled math letters and emoji, rare enough to not cache
+
+        String folded = BMP[cp];
+        if (folded == null)
+            BMP[cp] = folded = computeFold(cp);
+        return folded;
+    }
+
+    private static String computeFold(int cp) {
+        // zero-width spaces/joiners, soft hyphen, BOM and fillers that render as nothing
+        if (Character.getType(cp) == Character.FORMAT || cp == 0x115F || cp == 0x1160 || cp == 0x3164)
+            return "";
+
+        String decomposed = Normalizer.normalize(new String(Character.toChars(cp)), Normalizer.Form.NFKD);
+        StringBuilder out = new StringBuilder(decomposed.length());
+
+        for (int i = 0; i < decomposed.length();) {
+            int c = decomposed.codePointAt(i);
+            i += Character.charCount(c);
+
+            int type = Character.getType(c);
+            if (type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK
+                    || type == Character.COMBINING_SPACING_MARK)
+                continue;
+
+            c = Character.toLowerCase(c);
+            if (c < 128) {
+                out.append(ASCII[c]);
+            } else {
+                String look = CONFUSABLES.get(c);
+                if (look != null)
+                    out.append(look);
+                else
+                    out.appendCodePoint(c);
+            }
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * Folded text with offsets into the original text for every character.
+     */
+    static final class Normalized {
+
+        private char[] chars;
+        private int[] starts;
+        private int[] ends;
+        private int length;
+
+        private char[] joined;
+        private int[] joinedIndex; // index into chars
+        private int joinedLength;
+
+        private Normalized(int capacity) {
+            chars = new char[capacity];
+            starts = new int[capacity];
+            ends = new int[capacity];
+        }
+
+        private void add(char c, int start, int end) {
+            if (length == chars.length) {
+                int size = Math.max(16, length * 2);
+                chars = Arrays.copyOf(chars, size);
+                starts = Arrays.copyOf(starts, size);
+                ends = Arrays.copyOf(ends, size);
+            }
+            chars[length] = c;
+            starts[length] = start;
+            ends[length] = end;
+            length++;
+        }
+
+        /**
+         * Builds the joined view: a run of separators and whitespace is only
+         * dropped when it stands between single characters ("f.u.c.k", "f u c k"),
+         * anywhere else it becomes one space so that "am,kinda" or "i am kind"
+         * never read as "amkinda".
+         */
+        private void join() {
+            joined = new char[length];
+            joinedIndex = new int[length];
+
+            int tokenLength = 0;
+            for (int i = 0; i < length; i++) {
+                char c = chars[i];
+
+                if (isBreak(c)) {
+                    int j = i;
+                    while (j < length && isBreak(chars[j]))
+                        j++;
+
+                    int nextLength = 0;
+                    while (j + nextLength < length && !isBreak(chars[j + nextLength]))
+                        nextLength++;
+
+                    boolean spacedOut = tokenLength == 1 && nextLength == 1;
+                    if (!spacedOut)
+                        append(' ', i);
+
+                    tokenLength = 0;
+                    i = j - 1;
+                    continue;
+                }
+
+                tokenLength++;
+                append(c, i);
+            }
+        }
+
+        private static boolean isBreak(char c) {
+            return isSeparator(c) || Character.isWhitespace(c);
+        }
+
+        private void append(char c, int index) {
+            joined[joinedLength] = c;
+            joinedIndex[joinedLength] = index;
+            joinedLength++;
+        }
+
+        CharSequence text() {
+            return CharBuffer.wrap(chars, 0, length);
+        }
+
+        /**
+         * @return true if the joined view differs from the folded text
+         */
+        boolean hasJoined() {
+            return joinedLength != length;
+        }
+
+        CharSequence joinedText() {
+            return CharBuffer.wrap(joined, 0, joinedLength);
+        }
+
+        int originalStart(int index) {
+            return starts[index];
+        }
+
+        int originalEnd(int index) {
+            return ends[index];
+        }
+
+        int joinedOriginalStart(int index) {
+            return starts[joinedIndex[index]];
+        }
+
+        int joinedOriginalEnd(int index) {
+            return ends[joinedIndex[index]];
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+}
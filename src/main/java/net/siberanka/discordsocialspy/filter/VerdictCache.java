@@ -0,0 +1,99 @@
+package net.siberanka.discordsocialspy.filter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of filter verdicts.
+ * <p>
+ * Split into independently locked segments so chat threads rarely wait on
+ * each other. Each segment is an access ordered {@link LinkedHashMap} that
+ * drops its least recently used entry once it is full.
+ */
+final class VerdictCache {
+
+    // stored for allowed messages, the map cannot tell a null value from a miss
+    private static final String ALLOWED = "";
+    private static final int SEGMENTS = 8;
+
+    private final Segment[] segments;
+    private final int capacity;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    VerdictCache(int capacity) {
+        this.capacity = capacity;
+        int perSegment = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(perSegment);
+    }
+
+    /**
+     * @return the cached block cause, {@code ""} for an allowed text or null on a miss
+     */
+    String get(String text) {
+        Segment segment = segment(text);
+        String verdict;
+        synchronized (segment) {
+            verdict = segment.get(text);
+        }
+
+        if (verdict == null)
+            misses.increment();
+        else
+            hits.increment();
+        return verdict;
+    }
+
+    void put(String text, String cause) {
+        Segment segment = segment(text);
+        synchronized (segment) {
+            segment.put(text, cause == null ? ALLOWED : cause);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    private Segment segment(String text) {
+        int h = text.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static final class Segment extends LinkedHashMap<String, String> {
+
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -1,14 +1,17 @@
 package net.siberanka.discordsocialspy.listener;
 
 import net.siberanka.discordsocialspy.DiscordSocialSpyPlugin;
+import net.siberanka.discordsocialspy.audit.AuditType;
+import net.siberanka.discordsocialspy.util.LanguageManager;
+import net.siberanka.discordsocialspy.util.MessageTemplate;
+import net.siberanka.discordsocialspy.util.ConfigSnapshot;
 import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.JoinConfiguration;
 import net.kyori.adventure.text.event.ClickEvent;
 import net.kyori.adventure.text.event.HoverEvent;
-import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
 import org.bukkit.Location;
 import org.bukkit.block.Sign;
 import org.bukkit.entity.Player;
-import org.bukkit.Bukkit;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
@@ -16,29 +19,29 @@ import org.bukkit.event.block.SignChangeEvent;
 import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
 import org.bukkit.block.sign.SignSide;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 public class SignListener implements Listener {
 
     private final DiscordSocialSpyPlugin plugin;
-    private final Map<UUID, Boolean> signNotify;
+    private final SignSubscribers subscribers;
+    private final SignReporter reporter;
 
-    public SignListener(DiscordSocialSpyPlugin plugin, Map<UUID, Boolean> signNotify) {
+    public SignListener(DiscordSocialSpyPlugin plugin, SignSubscribers subscribers, SignReporter reporter) {
         this.plugin = plugin;
-        this.signNotify = signNotify;
+        this.subscribers = subscribers;
+        this.reporter = reporter;
     }
 
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
     public void onSignChange(SignChangeEvent event) {
 
-        if (!plugin.getConfig().getBoolean("log-signs", true))
+        ConfigSnapshot settings = plugin.getSettings();
+        if (!settings.isLogSigns())
             return;
 
-        Player player = event.getPlayer();
-        Location loc = event.getBlock().getLocation();
-        String world = loc.getWorld() != null ? loc.getWorld().getName() : "world";
-
         // Precaution: use getState(false) to avoid creating an NBT snapshot.
         // In 1.20+ Paper/Folia, taking a snapshot of a block state during an event
         // can sometimes corrupt the tile entity metadata on chunk load/unload if not
@@ -50,8 +53,44 @@ public class SignListener implements Listener {
         Sign oldSign = (Sign) state;
         SignSide oldSide = oldSign.getSide(event.getSide());
 
-        String[] oldLines = new String[4];
-        String[] newLines = new String[4];
+        // Components are immutable, the pipeline turns them into text later
+        Component[] oldLines = new Component[4];
+        Component[] newLines = new Component[4];
+        for (int i = 0; i < 4; i++) {
+            oldLines[i] = oldSide.line(i);
+            newLines[i] = event.line(i);
+        }
+
+        Player player = event.getPlayer();
+
+        // The filter decides whether the event is cancelled, so it cannot wait
+        String[] newText = null;
+        String blockCause = null;
+        if (plugin.getFilter().isEnabled()) {
+            newText = plainText(newLines);
+            blockCause = plugin.getBlockCause(String.join("", newText));
+            if (blockCause != null) {
+                event.setCancelled(true);
+                player.sendMessage(plugin.getLanguageManager().template("sign-blocked").legacy());
+            }
+        }
+
+        Location loc = event.getBlock().getLocation();
+        SignSnapshot sign = new SignSnapshot(player.getUniqueId(), player.getName(),
+                loc.getWorld() != null ? loc.getWorld().getName() : "world",
+                loc.getBlockX(), loc.getBlockY(), loc.getBlockZ(),
+                oldLines, newLines, newText, blockCause, System.currentTimeMillis());
+        plugin.getEventPipeline().submit(() -> process(sign));
+    }
+
+    /**
+     * Runs on the event pipeline: works out what changed, records the sign
+     * and reports it.
+     */
+    private void process(SignSnapshot sign) {
+
+        String[] oldLines = plainText(sign.oldLines());
+        String[] newLines = sign.newText() != null ? sign.newText() : plainText(sign.newLines());
         boolean[] edited = new boolean[4];
 
         boolean allOldEmpty = true;
@@ -59,12 +98,6 @@ public class SignListener implements Listener {
         boolean anyChange = false;
 
         for (int i = 0; i < 4; i++) {
-            Component oldComp = oldSide.line(i);
-            oldLines[i] = oldComp == null ? "" : PlainTextComponentSerializer.plainText().serialize(oldComp);
-
-            Component newComp = event.line(i);
-            newLines[i] = newComp == null ? "" : PlainTextComponentSerializer.plainText().serialize(newComp);
-
             if (!oldLines[i].isEmpty())
                 allOldEmpty = false;
             if (!newLines[i].isEmpty())
@@ -76,46 +109,78 @@ public class SignListener implements Listener {
             }
         }
 
-        boolean blocked = false;
-        String blockCause = null;
-        String combinedSignText = String.join("", newLines);
-        blockCause = plugin.getBlockCause(combinedSignText);
-        if (blockCause != null) {
-            blocked = true;
-        }
-
-        if (blocked) {
-            event.setCancelled(true);
-            player.sendMessage(LegacyComponentSerializer.legacyAmpersand()
-                    .deserialize(plugin.getLanguageManager().get("sign-blocked")));
-        }
-
         if (allNewEmpty)
             return;
 
         if (!allOldEmpty && !anyChange)
             return;
 
-        String locationString = world + " | " + loc.getBlockX() + ", " + loc.getBlockY() + ", " + loc.getBlockZ();
+        boolean blocked = sign.blockCause() != null;
+        String locationString = sign.world() + " | " + sign.x() + ", " + sign.y() + ", " + sign.z();
 
         String headerKey = allOldEmpty ? "sign-placed" : "sign-edited";
 
-        String title = plugin.getLanguageManager()
-                .get(headerKey)
-                .replace("{player}", player.getName())
-                .replace("{location}", locationString);
+        String signText = String.join(" | ", newLines);
+        plugin.getAuditLog().record(sign.time(), blocked ? AuditType.BLOCKED_SIGN : AuditType.SIGN,
+                sign.playerId(), sign.playerName(), sign.world(), sign.x(), sign.y(), sign.z(), signText);
+        if (!blocked)
+            plugin.getSignIndex().record(sign.world(), sign.x(), sign.y(), sign.z(), sign.time(),
+                    sign.playerId(), sign.playerName(), signText);
+
+        // Signs written in quick succession end up in one embed
+        reporter.add(new SignReporter.SignEdit(sign.playerId(), sign.playerName(), locationString,
+                newLines, edited, allOldEmpty, sign.blockCause(), sign.time()));
+
+        if (subscribers.isEmpty())
+            return;
+
+        LanguageManager lang = plugin.getLanguageManager();
+
+        // Rendered once, every subscriber gets the same component
+        List<Component> lines = new ArrayList<>(7);
+        lines.add(lang.template("sign-header-staff").legacy());
+        lines.add(lang.template(headerKey).legacy("player", sign.playerName(), "location", locationString));
 
-        if (blocked) {
-            title = plugin.getLanguageManager().get("prefix-blocked-sign") + title;
+        MessageTemplate signLine = lang.template("sign-line");
+        for (int i = 0; i < 4; i++) {
+            String raw = newLines[i];
+            String visible = raw.isEmpty() ? " " : raw;
+            lines.add(signLine.legacy("line", visible + (edited[i] && !allOldEmpty ? "*" : "")));
+        }
+
+        // "/tp x y z" teleports whoever clicks it
+        lines.add(lang.template("sign-location-click").legacy()
+                .clickEvent(ClickEvent.runCommand("/tp "
+                        + sign.x() + " "
+                        + sign.y() + " "
+                        + sign.z()))
+                .hoverEvent(HoverEvent.showText(Component.text(locationString))));
+
+        subscribers.broadcast(Component.join(JoinConfiguration.newlines(), lines));
+    }
+
+    private static String[] plainText(Component[] components) {
+        String[] text = new String[components.length];
+        for (int i = 0; i < components.length; i++) {
+            Component component = components[i];
+            text[i] = component == null ? "" : PlainTextComponentSerializer.plainText().serialize(component);
         }
+        return text;
+    }
+
+    /**
+     * Builds the embed description: the player name and every line in a code
+     * block, edited lines of an existing sign marked with a pen.
+     */
+    public static String describe(String playerName, String[] lines, boolean[] edited, boolean placed) {
 
-        StringBuilder desc = new StringBuilder();
+        StringBuilder desc = new StringBuilder(playerName.length() + 96);
 
-        desc.append("**").append(player.getName()).append("**\n\n");
+        desc.append("**").append(playerName).append("**\n\n");
 
         for (int i = 0; i < 4; i++) {
 
-            String raw = newLines[i];
+            String raw = lines[i];
 
             desc.append("```");
 
@@ -127,73 +192,22 @@ public class SignListener implements Listener {
 
             desc.append("```");
 
-            if (edited[i] && !allOldEmpty)
+            if (edited[i] && !placed)
                 desc.append(" ✍️");
 
             desc.append("\n");
         }
 
-        long timestamp = System.currentTimeMillis();
-
-        String pingRole = blocked ? plugin.getConfig().getString("filter.role-uuid", "") : null;
-
-        plugin.getDispatcher().queueEmbed(
-                title,
-                desc.toString(),
-                locationString,
-                true,
-                timestamp,
-                pingRole);
-
-        if (plugin.getConfig().getBoolean("log-signs-to-console")) {
-
-            plugin.getLogger().info("[SIGN] " + title);
-
-            for (int i = 0; i < 4; i++) {
-                String raw = newLines[i];
-                String line = raw + (edited[i] && !allOldEmpty ? "*" : "");
-                plugin.getLogger().info(line.isEmpty() ? "(empty)" : line);
-            }
-        }
-
-        boolean finalAllOldEmpty = allOldEmpty;
-
-        Bukkit.getAsyncScheduler().runNow(plugin, task -> {
-            for (Player p : plugin.getServer().getOnlinePlayers()) {
-
-                if (!p.hasPermission("discordsocialspy.use"))
-                    continue;
-
-                if (!signNotify.getOrDefault(p.getUniqueId(), false))
-                    continue;
-
-                String headerMsg = plugin.getLanguageManager().get("sign-header-staff");
-                String placedMsg = plugin.getLanguageManager().get(headerKey)
-                        .replace("{player}", player.getName())
-                        .replace("{location}", locationString);
-
-                p.sendMessage(LegacyComponentSerializer.legacyAmpersand().deserialize(headerMsg));
-                p.sendMessage(LegacyComponentSerializer.legacyAmpersand().deserialize(placedMsg));
-
-                for (int i = 0; i < 4; i++) {
-                    String raw = newLines[i];
-                    String visible = raw.isEmpty() ? " " : raw;
-                    String line = plugin.getLanguageManager().get("sign-line")
-                            .replace("{line}", visible + (edited[i] && !finalAllOldEmpty ? "*" : ""));
-                    p.sendMessage(LegacyComponentSerializer.legacyAmpersand().deserialize(line));
-                }
-
-                Component teleport = LegacyComponentSerializer.legacyAmpersand().deserialize(
-                        plugin.getLanguageManager().get("sign-location-click")).clickEvent(
-                                ClickEvent.runCommand("/tp " + p.getName() + " "
-                                        + loc.getBlockX() + " "
-                                        + loc.getBlockY() + " "
-                                        + loc.getBlockZ()))
-                        .hoverEvent(
-                                HoverEvent.showText(Component.text(locationString)));
+        return desc.toString();
+    }
 
-                p.sendMessage(teleport);
-            }
-        });
+    /**
+     * What the pipeline needs of a sign change, taken on the region thread.
+     *
+     * @param newText the new lines as text if the filter already needed them, else null
+     */
+    private record SignSnapshot(UUID playerId, String playerName, String world, int x, int y, int z,
+                                Component[] oldLines, Component[] newLines, String[] newText,
+                                String blockCause, long time) {
     }
 }
@@ -0,0 +1,230 @@
+package net.siberanka.discordsocialspy.listener;
+
+import net.siberanka.discordsocialspy.DiscordSocialSpyPlugin;
+import net.siberanka.discordsocialspy.util.ConfigSnapshot;
+import net.siberanka.discordsocialspy.util.LanguageManager;
+import net.siberanka.discordsocialspy.worker.EmbedTemplates;
+import net.siberanka.discordsocialspy.worker.EventType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Reports signs to Discord and the console, grouping the signs a player
+ * writes in quick succession into one embed.
+ * <p>
+ * A player's signs are held until none was added for the debounce window,
+ * or the batch is full, then sent together. Someone placing 50 signs in a
+ * row causes a handful of webhook calls instead of 50.
+ * <p>
+ * A batch only holds signs with the same block cause (or none), so the
+ * blocked title, the role ping and the route of a blocked sign never apply
+ * to clean ones. A sign with another cause reports the pending batch first,
+ * which keeps the order.
+ */
+public final class SignReporter {
+
+    // Keeps the description well below the 4096 characters Discord allows
+    private static final int MAX_SIGNS = 8;
+    private static final int MAX_DESCRIPTION = 3800;
+
+    private final DiscordSocialSpyPlugin plugin;
+
+    // Guarded by this
+    private final Map<UUID, Batch> batches = new HashMap<>();
+
+    private volatile long windowMillis = 3000;
+
+    public SignReporter(DiscordSocialSpyPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * @param windowMillis 0 reports every sign on its own
+     */
+    public void setWindowMillis(long windowMillis) {
+        this.windowMillis = Math.max(0, windowMillis);
+    }
+
+    public void add(SignEdit edit) {
+        if (windowMillis == 0) {
+            report(List.of(edit));
+            return;
+        }
+
+        List<SignEdit> other = null;
+        List<SignEdit> full = null;
+        synchronized (this) {
+            Batch batch = batches.get(edit.playerId());
+            if (batch != null && !Objects.equals(batch.blockCause, edit.blockCause())) {
+                other = batch.edits;
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch(edit.blockCause());
+                batches.put(edit.playerId(), batch);
+            }
+
+            batch.edits.add(edit);
+            batch.lastAdded = System.currentTimeMillis();
+            if (batch.edits.size() >= MAX_SIGNS) {
+                batches.remove(edit.playerId());
+                full = batch.edits;
+            }
+        }
+
+        if (other != null)
+            report(other);
+        if (full != null)
+            report(full);
+    }
+
+    /**
+     * Reports the batches that were quiet for the debounce window. Called
+     * periodically.
+     */
+    public void flush() {
+        flush(false);
+    }
+
+    /**
+     * Reports every batch right away, e.g. before the plugin is disabled.
+     */
+    public void flushAll() {
+        flush(true);
+    }
+
+    private void flush(boolean all) {
+        long deadline = System.currentTimeMillis() - windowMillis;
+        List<List<SignEdit>> ready = new ArrayList<>();
+
+        synchronized (this) {
+            Iterator<Batch> it = batches.values().iterator();
+            while (it.hasNext()) {
+                Batch batch = it.next();
+                if (all || batch.lastAdded <= deadline) {
+                    ready.add(batch.edits);
+                    it.remove();
+                }
+            }
+        }
+
+        for (List<SignEdit> edits : ready)
+            report(edits);
+    }
+
+    private void report(List<SignEdit> edits) {
+        ConfigSnapshot settings = plugin.getSettings();
+        LanguageManager lang = plugin.getLanguageManager();
+        SignEdit first = edits.get(0);
+
+        String blockCause = null;
+        for (SignEdit edit : edits) {
+            if (edit.blockCause() != null) {
+                blockCause = edit.blockCause();
+                break;
+            }
+        }
+
+        String title;
+        String desc;
+        String footer;
+        if (edits.size() == 1) {
+            title = title(lang, first);
+            desc = SignListener.describe(first.playerName(), first.lines(), first.edited(), first.placed());
+            footer = first.location();
+        } else {
+            title = lang.template("sign-batch")
+                    .render("player", first.playerName(), "count", String.valueOf(edits.size()));
+            if (blockCause != null)
+                title = lang.get("prefix-blocked-sign") + title;
+            desc = describe(lang, edits);
+            footer = first.location() + " … " + edits.get(edits.size() - 1).location();
+        }
+
+        String pingRole = blockCause != null ? settings.getFilterRoleUuid() : null;
+
+        plugin.getDispatcher().queueTemplateEmbed(EmbedTemplates.SIGN, EventType.SIGN, null, blockCause,
+                first.time(), pingRole,
+                "title", title,
+                "description", desc,
+                "footer", footer);
+
+        if (settings.isLogSignsToConsole()) {
+            for (SignEdit edit : edits) {
+                plugin.getLogger().info("[SIGN] " + title(lang, edit));
+
+                for (int i = 0; i < 4; i++) {
+                    String line = edit.lines()[i] + (edit.edited()[i] && !edit.placed() ? "*" : "");
+                    plugin.getLogger().info(line.isEmpty() ? "(empty)" : line);
+                }
+            }
+        }
+    }
+
+    private static String title(LanguageManager lang, SignEdit edit) {
+        String title = lang.template(edit.placed() ? "sign-placed" : "sign-edited")
+                .render("player", edit.playerName(), "location", edit.location());
+        return edit.blockCause() != null ? lang.get("prefix-blocked-sign") + title : title;
+    }
+
+    /**
+     * One block per sign: its location, whether it was placed or edited, and
+     * the lines in a single code block.
+     */
+    static String describe(LanguageManager lang, List<SignEdit> edits) {
+        StringBuilder desc = new StringBuilder(edits.size() * 128);
+        desc.append("**").append(edits.get(0).playerName()).append("**\n");
+
+        for (int n = 0; n < edits.size(); n++) {
+            SignEdit edit = edits.get(n);
+
+            StringBuilder part = new StringBuilder(128);
+            part.append("\n`").append(edit.location()).append("` ")
+                    .append(lang.get(edit.placed() ? "sign-placed" : "sign-edited"));
+            if (edit.blockCause() != null)
+                part.append(" ⛔");
+            part.append("\n```\n");
+            for (int i = 0; i < 4; i++) {
+                String raw = edit.lines()[i];
+                part.append(raw.isEmpty() ? " " : raw);
+                if (edit.edited()[i] && !edit.placed())
+                    part.append(" *");
+                part.append('\n');
+            }
+            part.append("```");
+
+            if (desc.length() + part.length() > MAX_DESCRIPTION) {
+                desc.append("\n+").append(edits.size() - n);
+                break;
+            }
+            desc.append(part);
+        }
+
+        return desc.toString();
+    }
+
+    /**
+     * A sign as the player wrote it.
+     *
+     * @param blockCause null unless the filter cancelled the sign
+     */
+    public record SignEdit(UUID playerId, String playerName, String location, String[] lines,
+                           boolean[] edited, boolean placed, String blockCause, long time) {
+    }
+
+    private static final class Batch {
+        final List<SignEdit> edits = new ArrayList<>(MAX_SIGNS);
+        final String blockCause; // shared by every sign of the batch
+        long lastAdded;
+
+        Batch(String blockCause) {
+            this.blockCause = blockCause;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package net.siberanka.discordsocialspy.listener;
+
+import net.kyori.adventure.text.Component;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Live set of online staff who receive sign notifications.
+ * <p>
+ * Kept up to date on join, quit and toggle, and by {@link #refresh(Collection)}
+ * for permissions granted while online. A revoked permission is noticed on the
+ * next broadcast. A notification therefore only visits subscribed staff
+ * instead of every online player.
+ */
+public class SignSubscribers implements Listener {
+
+    public static final String PERMISSION = "discordsocialspy.use";
+
+    // explicit toggles, players without an entry use the config default
+    private final Map<UUID, Boolean> preferences = new ConcurrentHashMap<>();
+    private final Map<UUID, Player> subscribers = new ConcurrentHashMap<>();
+
+    private volatile boolean defaultEnabled;
+
+    public void setDefaultEnabled(boolean defaultEnabled) {
+        this.defaultEnabled = defaultEnabled;
+    }
+
+    public boolean isEnabled(UUID player) {
+        return preferences.getOrDefault(player, defaultEnabled);
+    }
+
+    /**
+     * @return the new state
+     */
+    public boolean toggle(Player player) {
+        boolean state = !isEnabled(player.getUniqueId());
+        preferences.put(player.getUniqueId(), state);
+        update(player);
+        return state;
+    }
+
+    public void update(Player player) {
+        if (player.isOnline() && player.hasPermission(PERMISSION) && isEnabled(player.getUniqueId()))
+            subscribers.put(player.getUniqueId(), player);
+        else
+            subscribers.remove(player.getUniqueId());
+    }
+
+    public void refresh(Collection<? extends Player> online) {
+        for (Player player : online)
+            update(player);
+    }
+
+    public boolean isEmpty() {
+        return subscribers.isEmpty();
+    }
+
+    /**
+     * Sends the same, already rendered message to every subscriber.
+     */
+    public void broadcast(Component message) {
+        for (Player player : subscribers.values()) {
+            if (!player.hasPermission(PERMISSION)) {
+                subscribers.remove(player.getUniqueId());
+                continue;
+            }
+            player.sendMessage(message);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        update(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        subscribers.remove(event.getPlayer().getUniqueId());
+    }
+}
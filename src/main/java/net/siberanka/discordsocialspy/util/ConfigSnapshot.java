@@ -0,0 +1,137 @@
+package net.siberanka.discordsocialspy.util;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandMap;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable copy of the config values read by the event handlers.
+ * <p>
+ * Built once per reload, so the hot path never touches YAML. Logged commands
+ * are resolved through the command map: every label that points to the same
+ * command, i.e. aliases and namespaced forms like {@code essentials:msg},
+ * is logged as well.
+ */
+public final class ConfigSnapshot {
+
+    private static final ConfigSnapshot EMPTY = new ConfigSnapshot(Collections.emptySet(), "", false,
+            "", "", false, false, false);
+
+    private final Set<String> loggedRoots;
+    private final String excludePermission;
+    private final boolean checkChat;
+    private final String filterRoleUuid;
+    private final String messagePrefix;
+    private final boolean logSigns;
+    private final boolean logSignsToConsole;
+    private final boolean commandEmbeds;
+
+    private ConfigSnapshot(Set<String> loggedRoots, String excludePermission,
+            boolean checkChat, String filterRoleUuid, String messagePrefix, boolean logSigns,
+            boolean logSignsToConsole, boolean commandEmbeds) {
+        this.loggedRoots = loggedRoots;
+        this.excludePermission = excludePermission;
+        this.checkChat = checkChat;
+        this.filterRoleUuid = filterRoleUuid;
+        this.messagePrefix = messagePrefix;
+        this.logSigns = logSigns;
+        this.logSignsToConsole = logSignsToConsole;
+        this.commandEmbeds = commandEmbeds;
+    }
+
+    public static ConfigSnapshot empty() {
+        return EMPTY;
+    }
+
+    public static ConfigSnapshot load(FileConfiguration config, CommandMap commandMap) {
+        return new ConfigSnapshot(
+                resolveRoots(config.getStringList("logged-commands"), commandMap),
+                config.getString("exclude-permission", ""),
+                config.getBoolean("filter.check-chat", false),
+                config.getString("filter.role-uuid", ""),
+                config.getString("message-prefix", ""),
+                config.getBoolean("log-signs", true),
+                config.getBoolean("log-signs-to-console"),
+                config.getBoolean("command-embeds", false));
+    }
+
+    private static Set<String> resolveRoots(Iterable<String> configured, CommandMap commandMap) {
+        Set<String> roots = new HashSet<>();
+        Set<Command> commands = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (String entry : configured) {
+            String root = entry.trim().toLowerCase(Locale.ROOT);
+            if (root.startsWith("/"))
+                root = root.substring(1);
+            if (root.isEmpty())
+                continue;
+
+            roots.add(root);
+
+            Command command = commandMap == null ? null : commandMap.getCommand(root);
+            if (command != null)
+                commands.add(command);
+        }
+
+        // One pass over the command map collects every label of the resolved commands
+        if (!commands.isEmpty()) {
+            for (Map.Entry<String, Command> known : commandMap.getKnownCommands().entrySet()) {
+                if (commands.contains(known.getValue()))
+                    roots.add(known.getKey().toLowerCase(Locale.ROOT));
+            }
+        }
+
+        return Set.copyOf(roots);
+    }
+
+    /**
+     * @param root lowercase command label without the slash
+     */
+    public boolean isLogged(String root) {
+        if (loggedRoots.contains(root))
+            return true;
+
+        // Namespaced label of a command that was not registered when the snapshot was built
+        int colon = root.indexOf(':');
+        return colon >= 0 && loggedRoots.contains(root.substring(colon + 1));
+    }
+
+    public Set<String> getLoggedRoots() {
+        return loggedRoots;
+    }
+
+    public String getExcludePermission() {
+        return excludePermission;
+    }
+
+    public boolean isCheckChat() {
+        return checkChat;
+    }
+
+    public String getFilterRoleUuid() {
+        return filterRoleUuid;
+    }
+
+    public String getMessagePrefix() {
+        return messagePrefix;
+    }
+
+    public boolean isLogSigns() {
+        return logSigns;
+    }
+
+    public boolean isLogSignsToConsole() {
+        return logSignsToConsole;
+    }
+
+    public boolean isCommandEmbeds() {
+        return commandEmbeds;
+    }
+}
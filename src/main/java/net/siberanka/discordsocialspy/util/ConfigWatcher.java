@@ -0,0 +1,115 @@
+package net.siberanka.discordsocialspy.util;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Watches a single file and runs a callback once it has changed.
+ * <p>
+ * Editors often write a file in several steps, so the callback only runs
+ * after the file has been quiet for the debounce time, and not at all if
+ * the content is the same as at the last run. The callback runs on the
+ * watcher thread.
+ */
+public final class ConfigWatcher implements AutoCloseable {
+
+    private final Path file;
+    private final long debounceMillis;
+    private final Runnable onChange;
+    private final Logger logger;
+
+    private final WatchService service;
+    private final Thread thread;
+    private byte[] lastContent;
+
+    public ConfigWatcher(Path file, long debounceMillis, Runnable onChange, Logger logger) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.debounceMillis = debounceMillis;
+        this.onChange = onChange;
+        this.logger = logger;
+        this.lastContent = read();
+
+        service = FileSystems.getDefault().newWatchService();
+        this.file.getParent().register(service,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+
+        thread = new Thread(this::watch, "DiscordSocialSpy-ConfigWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean touched = drain(key);
+
+                // Wait until the writes stop
+                while (touched) {
+                    WatchKey next = service.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                    if (next == null)
+                        break;
+                    drain(next);
+                }
+
+                if (touched)
+                    changed();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private boolean drain(WatchKey key) {
+        boolean touched = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || (context instanceof Path && file.getFileName().equals(context)))
+                touched = true;
+        }
+        key.reset();
+        return touched;
+    }
+
+    private void changed() {
+        byte[] content = read();
+        if (content == null || Arrays.equals(content, lastContent))
+            return;
+        lastContent = content;
+
+        try {
+            onChange.run();
+        } catch (Exception ex) {
+            logger.warning("[DiscordSocialSpy] Failed to apply changes of " + file.getFileName() + ": " + ex.getMessage());
+        }
+    }
+
+    private byte[] read() {
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        thread.interrupt();
+        try {
+            service.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package net.siberanka.discordsocialspy.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A webhook embed template compiled once into a byte layout.
+ * <p>
+ * The embed object is minified and cut at every {@code %placeholder%} inside
+ * a JSON string into pre-encoded UTF-8 chunks. Rendering copies the chunks and
+ * writes only the escaped placeholder values in between, straight into a
+ * {@link JsonWriter}. Placeholders outside of strings are left untouched.
+ */
+public final class EmbedTemplate {
+
+    // chunks[i] comes before slots[i], the last chunk has no slot after it
+    private final byte[][] chunks;
+    private final String[] slots;
+
+    private EmbedTemplate(byte[][] chunks, String[] slots) {
+        this.chunks = chunks;
+        this.slots = slots;
+    }
+
+    /**
+     * @param json a webhook body with an "embeds" array (the first embed is
+     *             used) or a single embed object
+     * @throws IllegalArgumentException if no embed object is found
+     */
+    public static EmbedTemplate compile(String json) {
+        String embed = extractEmbed(json);
+
+        List<byte[]> chunks = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        StringBuilder chunk = new StringBuilder(embed.length());
+        boolean inString = false;
+
+        for (int i = 0; i < embed.length(); i++) {
+            char c = embed.charAt(i);
+
+            if (!inString) {
+                if (Character.isWhitespace(c))
+                    continue;
+                if (c == '"')
+                    inString = true;
+                chunk.append(c);
+                continue;
+            }
+
+            if (c == '\\' && i + 1 < embed.length()) {
+                chunk.append(c).append(embed.charAt(++i));
+                continue;
+            }
+            if (c == '"') {
+                inString = false;
+            } else if (c == '%') {
+                int end = embed.indexOf('%', i + 1);
+                if (end > i + 1 && isSlotName(embed, i + 1, end)) {
+                    chunks.add(chunk.toString().getBytes(StandardCharsets.UTF_8));
+                    chunk.setLength(0);
+                    slots.add(embed.substring(i + 1, end));
+                    i = end;
+                    continue;
+                }
+            }
+            chunk.append(c);
+        }
+        chunks.add(chunk.toString().getBytes(StandardCharsets.UTF_8));
+
+        return new EmbedTemplate(chunks.toArray(new byte[0][]), slots.toArray(new String[0]));
+    }
+
+    private static boolean isSlotName(String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && c != '_')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the first object of the top level "embeds" array, or returns the
+     * whole text if it is an object without such an array.
+     */
+    private static String extractEmbed(String json) {
+        String text = json.trim();
+        if (text.isEmpty() || text.charAt(0) != '{')
+            throw new IllegalArgumentException("template is not a JSON object");
+
+        int depth = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (c == '"') {
+                int end = skipString(text, i);
+                if (depth == 1 && text.substring(i + 1, end).equals("embeds")) {
+                    int colon = nextToken(text, end + 1);
+                    int bracket = nextToken(text, colon + 1);
+                    int open = nextToken(text, bracket + 1);
+                    if (text.charAt(colon) != ':' || text.charAt(bracket) != '[' || text.charAt(open) != '{')
+                        throw new IllegalArgumentException("\"embeds\" must be an array of objects");
+                    return text.substring(open, matchingBrace(text, open) + 1);
+                }
+                i = end;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        }
+
+        matchingBrace(text, 0);
+        return text;
+    }
+
+    private static int nextToken(String text, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i)))
+                return i;
+        }
+        throw new IllegalArgumentException("unexpected end of template");
+    }
+
+    /**
+     * @return index of the quote that closes the string starting at start
+     */
+    private static int skipString(String text, int start) {
+        for (int i = start + 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\')
+                i++;
+            else if (c == '"')
+                return i;
+        }
+        throw new IllegalArgumentException("unterminated string");
+    }
+
+    private static int matchingBrace(String text, int open) {
+        int depth = 0;
+        for (int i = open; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"')
+                i = skipString(text, i);
+            else if (c == '{' || c == '[')
+                depth++;
+            else if ((c == '}' || c == ']') && --depth == 0)
+                return i;
+        }
+        throw new IllegalArgumentException("unbalanced braces");
+    }
+
+    /**
+     * Writes the embed object as the next value of the writer.
+     *
+     * @param values pairs of placeholder name (without percent signs) and
+     *               value, placeholders without a value become empty
+     */
+    public void write(JsonWriter json, String... values) {
+        json.raw(chunks[0]);
+        for (int i = 0; i < slots.length; i++) {
+            json.writeEscaped(lookup(slots[i], values));
+            json.append(chunks[i + 1]);
+        }
+    }
+
+    private static String lookup(String slot, String[] values) {
+        for (int i = 0; i + 1 < values.length; i += 2) {
+            if (slot.equals(values[i]))
+                return values[i + 1];
+        }
+        return null;
+    }
+}
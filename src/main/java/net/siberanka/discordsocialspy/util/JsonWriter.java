@@ -0,0 +1,245 @@
+package net.siberanka.discordsocialspy.util;
+
+import java.util.Arrays;
+
+/**
+ * Small streaming JSON writer that escapes and UTF-8 encodes values in a
+ * single pass straight into a reusable byte buffer.
+ * Use {@link #local()} to get the writer of the current thread.
+ */
+public final class JsonWriter {
+
+    private static final ThreadLocal<JsonWriter> LOCAL = ThreadLocal.withInitial(JsonWriter::new);
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private byte[] buffer = new byte[2048];
+    private int size;
+
+    // per nesting level: true until the first value has been written
+    private boolean[] first = new boolean[8];
+    private int depth;
+    private boolean afterName;
+
+    /**
+     * Returns the reset writer of the current thread.
+     * The result must be copied with {@link #toByteArray()} before the thread uses it again.
+     */
+    public static JsonWriter local() {
+        JsonWriter writer = LOCAL.get();
+        writer.reset();
+        return writer;
+    }
+
+    public JsonWriter reset() {
+        size = 0;
+        depth = 0;
+        afterName = false;
+        // Do not keep a huge buffer around after one oversized payload
+        if (buffer.length > 65536)
+            buffer = new byte[2048];
+        return this;
+    }
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        put((byte) '{');
+        push();
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        depth--;
+        put((byte) '}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        put((byte) '[');
+        push();
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        depth--;
+        put((byte) ']');
+        return this;
+    }
+
+    public JsonWriter name(String name) {
+        beforeValue();
+        writeString(name);
+        put((byte) ':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        beforeValue();
+        if (value == null)
+            writeAscii("null");
+        else
+            writeString(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        writeAscii(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Writes a string value made of several parts without joining them first.
+     */
+    public JsonWriter value(String... parts) {
+        beforeValue();
+        put((byte) '"');
+        for (String part : parts)
+            writeEscaped(part);
+        put((byte) '"');
+        return this;
+    }
+
+    /**
+     * Appends already encoded JSON as the next value.
+     */
+    public JsonWriter raw(byte[] json) {
+        beforeValue();
+        ensure(json.length);
+        System.arraycopy(json, 0, buffer, size, json.length);
+        size += json.length;
+        return this;
+    }
+
+    /**
+     * Appends bytes verbatim, e.g. the rest of a value started with {@link #raw(byte[])}.
+     */
+    public JsonWriter append(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    // === INTERNALS ===
+
+    private void push() {
+        if (++depth == first.length)
+            first = Arrays.copyOf(first, depth * 2);
+        first[depth] = true;
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (!first[depth])
+                put((byte) ',');
+            first[depth] = false;
+        }
+    }
+
+    private void writeString(String value) {
+        put((byte) '"');
+        writeEscaped(value);
+        put((byte) '"');
+    }
+
+    /**
+     * Escapes and encodes in one pass: quotes, backslashes and every control
+     * character are escaped, everything else is written as UTF-8.
+     */
+    public void writeEscaped(String value) {
+        if (value == null)
+            return;
+
+        int length = value.length();
+        ensure(length);
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+
+            if (c >= 0x20 && c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    ensure(2);
+                    buffer[size++] = '\\';
+                }
+                put((byte) c);
+                continue;
+            }
+
+            if (c < 0x20) {
+                ensure(6);
+                buffer[size++] = '\\';
+                switch (c) {
+                    case '\n' -> buffer[size++] = 'n';
+                    case '\r' -> buffer[size++] = 'r';
+                    case '\t' -> buffer[size++] = 't';
+                    case '\b' -> buffer[size++] = 'b';
+                    case '\f' -> buffer[size++] = 'f';
+                    default -> {
+                        buffer[size++] = 'u';
+                        buffer[size++] = '0';
+                        buffer[size++] = '0';
+                        buffer[size++] = HEX[c >> 4];
+                        buffer[size++] = HEX[c & 0xF];
+                    }
+                }
+                continue;
+            }
+
+            ensure(4);
+
+            if (c < 0x800) {
+                buffer[size++] = (byte) (0xC0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                buffer[size++] = (byte) (0xF0 | (cp >> 18));
+                buffer[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buffer[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer[size++] = '?'; // unpaired surrogate, not valid UTF-8
+            } else {
+                buffer[size++] = (byte) (0xE0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void writeAscii(String value) {
+        int length = value.length();
+        ensure(length);
+        for (int i = 0; i < length; i++)
+            buffer[size++] = (byte) value.charAt(i);
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        buffer[size++] = b;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+    }
+}
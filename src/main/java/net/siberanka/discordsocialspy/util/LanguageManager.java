@@ -6,19 +6,33 @@ import org.bukkit.plugin.Plugin;
 
 import java.io.File;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 public class LanguageManager {
 
     private final Plugin plugin;
-    private YamlConfiguration lang;
+
+    // Swapped as a whole on reload, readers never see a half built set
+    private volatile Templates templates = new Templates("", Map.of(), Map.of());
 
     public LanguageManager(Plugin plugin) {
         this.plugin = plugin;
     }
 
-    public void loadLanguage(String code) {
+    /**
+     * Loads a language file. The prefix is compiled into the templates, so
+     * the caller passes the message-prefix of the config.yml it just loaded
+     * rather than this class reading a possibly stale one.
+     */
+    public void loadLanguage(String code, String prefix) {
 
         if (code == null || code.isBlank()) code = "en";
 
@@ -43,15 +57,61 @@ public class LanguageManager {
             langFile = new File(langFolder, "en.yml");
         }
 
-        lang = new YamlConfiguration();
+        YamlConfiguration lang = new YamlConfiguration();
         try {
             lang.load(langFile);
         } catch (Exception ignored) {}
+
+        // Keys added in newer versions are missing from already copied files
+        InputStream defaults = plugin.getResource("lang/" + code + ".yml");
+        if (defaults == null) defaults = plugin.getResource("lang/en.yml");
+        YamlConfiguration bundled = null;
+        if (defaults != null) {
+            try (Reader reader = new InputStreamReader(defaults, StandardCharsets.UTF_8)) {
+                bundled = YamlConfiguration.loadConfiguration(reader);
+                lang.setDefaults(bundled);
+            } catch (Exception ignored) {}
+        }
+
+        compile(lang, bundled, prefix == null ? "" : prefix);
+    }
+
+    /**
+     * Parses every key once, with and without the message prefix.
+     */
+    private void compile(YamlConfiguration lang, YamlConfiguration bundled, String prefix) {
+        Map<String, MessageTemplate> plain = new HashMap<>();
+        Map<String, MessageTemplate> prefixed = new HashMap<>();
+
+        Set<String> keys = new LinkedHashSet<>(lang.getKeys(true));
+        if (bundled != null) keys.addAll(bundled.getKeys(true));
+
+        for (String key : keys) {
+            String value = lang.getString(key);
+            if (value == null || !lang.isString(key)) continue; // skip sections
+            plain.put(key, MessageTemplate.compile(value));
+            prefixed.put(key, MessageTemplate.compile(prefix + value));
+        }
+
+        templates = new Templates(prefix, plain, prefixed);
     }
 
     public String get(String key) {
-        if (lang == null) return key;
-        return lang.getString(key, key);
+        return template(key).source();
+    }
+
+    public MessageTemplate template(String key) {
+        MessageTemplate template = templates.plain.get(key);
+        return template != null ? template : MessageTemplate.compile(key);
+    }
+
+    /**
+     * The template with the message-prefix of config.yml in front.
+     */
+    public MessageTemplate prefixed(String key) {
+        Templates current = templates;
+        MessageTemplate template = current.prefixed.get(key);
+        return template != null ? template : MessageTemplate.compile(current.prefix + key);
     }
 
     private void copyDefault(String code) {
@@ -73,6 +133,10 @@ public class LanguageManager {
         }
     }
 
+    private record Templates(String prefix, Map<String, MessageTemplate> plain,
+                             Map<String, MessageTemplate> prefixed) {
+    }
+
     private boolean isValidYaml(String text) {
         try {
             new YamlConfiguration().loadFromString(text);
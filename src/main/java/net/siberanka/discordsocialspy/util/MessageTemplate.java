@@ -0,0 +1,141 @@
+package net.siberanka.discordsocialspy.util;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A language string parsed once into literal parts and {@code {placeholder}}
+ * slots. Rendering only fills the slots; templates without slots keep their
+ * deserialized Components, so sending them costs no parsing at all.
+ */
+public final class MessageTemplate {
+
+    private final String source;
+    // literals[i] comes before slots[i], the last literal has no slot after it
+    private final String[] literals;
+    private final String[] slots;
+    private final int literalLength;
+
+    private volatile Component legacy;
+    private volatile Component mini;
+
+    private MessageTemplate(String source, String[] literals, String[] slots) {
+        this.source = source;
+        this.literals = literals;
+        this.slots = slots;
+
+        int length = 0;
+        for (String literal : literals)
+            length += literal.length();
+        this.literalLength = length;
+    }
+
+    public static MessageTemplate compile(String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+
+        for (int i = 0; i < source.length(); ) {
+            char c = source.charAt(i);
+            if (c == '{') {
+                int close = source.indexOf('}', i + 1);
+                if (close > 0 && isSlotName(source, i + 1, close)) {
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    slots.add(source.substring(i + 1, close));
+                    i = close + 1;
+                    continue;
+                }
+            }
+            literal.append(c);
+            i++;
+        }
+        literals.add(literal.toString());
+
+        return new MessageTemplate(source, literals.toArray(new String[0]), slots.toArray(new String[0]));
+    }
+
+    private static boolean isSlotName(String source, int start, int end) {
+        if (start == end)
+            return false;
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && c != '_' && c != '-')
+                return false;
+        }
+        return true;
+    }
+
+    public String source() {
+        return source;
+    }
+
+    public boolean hasSlots() {
+        return slots.length > 0;
+    }
+
+    /**
+     * Fills the slots. Placeholders without a value are left as they are.
+     *
+     * @param values pairs of placeholder name (without braces) and value
+     */
+    public String render(String... values) {
+        if (slots.length == 0)
+            return source;
+
+        StringBuilder out = new StringBuilder(literalLength + 16 * slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            out.append(literals[i]);
+            String value = lookup(slots[i], values);
+            if (value != null)
+                out.append(value);
+            else
+                out.append('{').append(slots[i]).append('}');
+        }
+        out.append(literals[slots.length]);
+        return out.toString();
+    }
+
+    private static String lookup(String slot, String[] values) {
+        for (int i = 0; i + 1 < values.length; i += 2) {
+            if (slot.equals(values[i]))
+                return values[i + 1];
+        }
+        return null;
+    }
+
+    /**
+     * Renders and deserializes {@code &} color codes.
+     */
+    public Component legacy(String... values) {
+        if (slots.length > 0)
+            return LegacyComponentSerializer.legacyAmpersand().deserialize(render(values));
+
+        Component component = legacy;
+        if (component == null)
+            legacy = component = LegacyComponentSerializer.legacyAmpersand().deserialize(source);
+        return component;
+    }
+
+    /**
+     * Renders and deserializes MiniMessage tags.
+     */
+    public Component mini(String... values) {
+        if (slots.length > 0)
+            return MiniMessage.miniMessage().deserialize(render(values));
+
+        Component component = mini;
+        if (component == null)
+            mini = component = MiniMessage.miniMessage().deserialize(source);
+        return component;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
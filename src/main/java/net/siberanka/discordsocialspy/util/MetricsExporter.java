@@ -0,0 +1,111 @@
+package net.siberanka.discordsocialspy.util;
+
+import net.siberanka.discordsocialspy.filter.FilterEngine;
+import net.siberanka.discordsocialspy.worker.AsyncDispatcher;
+import net.siberanka.discordsocialspy.worker.DispatcherMetrics;
+import net.siberanka.discordsocialspy.worker.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes the dispatcher and filter metrics to a file in the Prometheus text
+ * format, so it can be read by the node_exporter textfile collector or just
+ * looked at. The file is replaced atomically, readers never see half of it.
+ */
+public final class MetricsExporter {
+
+    private static final String PREFIX = "discordsocialspy_";
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+    private final Path file;
+
+    public MetricsExporter(Path file) {
+        this.file = file;
+    }
+
+    public void write(AsyncDispatcher dispatcher, FilterEngine filter) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, render(dispatcher, filter), StandardCharsets.UTF_8);
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static String render(AsyncDispatcher dispatcher, FilterEngine filter) {
+        DispatcherMetrics metrics = dispatcher.getMetrics();
+        StringBuilder out = new StringBuilder(2048);
+
+        type(out, "queue_size", "gauge");
+        for (Map.Entry<String, Integer> entry : dispatcher.getQueueSizes().entrySet())
+            sample(out, "queue_size", "destination", entry.getKey(), entry.getValue());
+        type(out, "queue_capacity", "gauge");
+        sample(out, "queue_capacity", null, null, dispatcher.getQueueCapacity());
+
+        type(out, "messages_total", "counter");
+        sample(out, "messages_total", "result", "accepted", dispatcher.getAcceptedCount());
+        sample(out, "messages_total", "result", "delivered", metrics.getDelivered());
+        sample(out, "messages_total", "result", "dropped", dispatcher.getDroppedCount());
+        sample(out, "messages_total", "result", "coalesced", dispatcher.getCoalescedCount());
+        sample(out, "messages_total", "result", "spilled", dispatcher.getSpilledCount());
+
+        type(out, "requests_total", "counter");
+        for (Map.Entry<Integer, Long> entry : metrics.getStatuses().entrySet())
+            sample(out, "requests_total", "status", String.valueOf(entry.getKey()), entry.getValue());
+        sample(out, "requests_total", "status", "error", metrics.getErrors());
+
+        type(out, "retries_total", "counter");
+        sample(out, "retries_total", null, null, metrics.getRetries());
+        type(out, "failovers_total", "counter");
+        sample(out, "failovers_total", null, null, metrics.getFailovers());
+        type(out, "rate_limited_total", "counter");
+        sample(out, "rate_limited_total", null, null, metrics.getRateLimited());
+
+        summary(out, "request_latency_seconds", metrics.getRequestLatency());
+        summary(out, "delivery_latency_seconds", metrics.getDeliveryLatency());
+
+        type(out, "filter_checks_total", "counter");
+        sample(out, "filter_checks_total", null, null, filter.getChecked());
+        type(out, "filter_blocked_total", "counter");
+        sample(out, "filter_blocked_total", "cause", "word", filter.getWordHits());
+        sample(out, "filter_blocked_total", "cause", "regex", filter.getRegexHits());
+        type(out, "filter_cache_lookups_total", "counter");
+        sample(out, "filter_cache_lookups_total", "result", "hit", filter.getCacheHits());
+        sample(out, "filter_cache_lookups_total", "result", "miss", filter.getCacheMisses());
+
+        return out.toString();
+    }
+
+    private static void type(StringBuilder out, String name, String type) {
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String value, Number sample) {
+        out.append(PREFIX).append(name);
+        if (label != null)
+            out.append('{').append(label).append("=\"").append(value).append("\"}");
+        out.append(' ').append(sample).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, LatencyHistogram histogram) {
+        type(out, name, "summary");
+        for (double quantile : QUANTILES) {
+            out.append(PREFIX).append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(histogram.getPercentile(quantile * 100))).append('\n');
+        }
+        out.append(PREFIX).append(name).append("_sum ").append(seconds(histogram.getSum())).append('\n');
+        out.append(PREFIX).append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1_000_000.0);
+    }
+}
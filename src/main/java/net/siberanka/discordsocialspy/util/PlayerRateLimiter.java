@@ -0,0 +1,135 @@
+package net.siberanka.discordsocialspy.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-player token bucket for the lines sent to Discord, so one player cannot
+ * take the whole webhook throughput.
+ * <p>
+ * Each player may send {@code burst} lines at once, refilled at
+ * {@code perMinute} lines per minute. Lines over the limit are only counted;
+ * {@link #flush(SuppressedListener)} reports the count once the player has a
+ * token again, as a single summary line.
+ */
+public final class PlayerRateLimiter {
+
+    /**
+     * Receives the number of lines suppressed for a player since the last report.
+     */
+    public interface SuppressedListener {
+        void onSuppressed(String playerName, int count);
+    }
+
+    private final Map<UUID, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private volatile boolean enabled = true;
+    private volatile int burst = 10;
+    private volatile double tokensPerNano = 20 / 60e9;
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setBurst(int burst) {
+        this.burst = Math.max(1, burst);
+    }
+
+    public void setPerMinute(int perMinute) {
+        this.tokensPerNano = Math.max(1, perMinute) / 60e9;
+    }
+
+    /**
+     * Takes a token for one line.
+     *
+     * @return false if the player is over the limit and the line must be dropped
+     */
+    public boolean tryAcquire(UUID player, String playerName) {
+        if (!enabled)
+            return true;
+
+        Bucket bucket = buckets.computeIfAbsent(player, id -> new Bucket(burst));
+        synchronized (bucket) {
+            bucket.name = playerName;
+            if (bucket.take(System.nanoTime(), burst, tokensPerNano))
+                return true;
+            bucket.suppressed++;
+            return false;
+        }
+    }
+
+    /**
+     * Reports suppressed lines of every player who has a token again (the
+     * summary line uses it) and drops buckets that are full and idle.
+     */
+    public void flush(SuppressedListener listener) {
+        long now = System.nanoTime();
+        int burst = this.burst;
+        double tokensPerNano = this.tokensPerNano;
+
+        for (Iterator<Bucket> it = buckets.values().iterator(); it.hasNext(); ) {
+            Bucket bucket = it.next();
+            int count = 0;
+            String name;
+
+            synchronized (bucket) {
+                name = bucket.name;
+                if (bucket.suppressed > 0) {
+                    if (bucket.take(now, burst, tokensPerNano)) {
+                        count = bucket.suppressed;
+                        bucket.suppressed = 0;
+                    }
+                } else if (bucket.isFull(now, burst, tokensPerNano)) {
+                    it.remove();
+                }
+            }
+
+            if (count > 0)
+                listener.onSuppressed(name, count);
+        }
+    }
+
+    /**
+     * Forgets the player unless a summary is still pending, that one is
+     * reported and cleaned up by the next flush.
+     */
+    public void remove(UUID player) {
+        buckets.computeIfPresent(player, (id, bucket) -> {
+            synchronized (bucket) {
+                return bucket.suppressed > 0 ? bucket : null;
+            }
+        });
+    }
+
+    private static final class Bucket {
+
+        private String name;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+        private int suppressed;
+
+        Bucket(int burst) {
+            tokens = burst;
+        }
+
+        private void refill(long now, int burst, double tokensPerNano) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+        }
+
+        boolean take(long now, int burst, double tokensPerNano) {
+            refill(now, burst, tokensPerNano);
+            if (tokens < 1)
+                return false;
+            tokens--;
+            return true;
+        }
+
+        boolean isFull(long now, int burst, double tokensPerNano) {
+            refill(now, burst, tokensPerNano);
+            return tokens >= burst;
+        }
+    }
+}
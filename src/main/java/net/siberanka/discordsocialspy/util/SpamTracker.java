@@ -0,0 +1,109 @@
+package net.siberanka.discordsocialspy.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Detects players repeating the same command within a sliding time window.
+ * <p>
+ * One small state record is kept per player. Records are removed when the
+ * player quits ({@link #remove(UUID)}) and by {@link #expire()} once they have
+ * been idle for a whole window, so memory use follows the online players.
+ */
+public final class SpamTracker {
+
+    public enum Result {
+        ALLOWED,
+        /** First suppressed repeat of a run, the one worth a warning. */
+        WARN,
+        SUPPRESSED
+    }
+
+    private final Map<UUID, State> states = new ConcurrentHashMap<>();
+
+    private volatile int threshold = 3;
+    private volatile long windowMillis = 60_000;
+
+    public void setThreshold(int threshold) {
+        this.threshold = Math.max(1, threshold);
+    }
+
+    public void setWindowMillis(long windowMillis) {
+        this.windowMillis = Math.max(1, windowMillis);
+    }
+
+    /**
+     * Records a message. Up to threshold identical messages (ignoring case)
+     * are allowed within the window, later repeats are suppressed until the
+     * player sends something else or the window passes.
+     */
+    public Result record(UUID player, String message) {
+        long now = System.currentTimeMillis();
+        State state = states.computeIfAbsent(player, id -> new State());
+
+        synchronized (state) {
+            return state.record(message, now, threshold, windowMillis);
+        }
+    }
+
+    public void remove(UUID player) {
+        states.remove(player);
+    }
+
+    /**
+     * Drops the records of players idle for longer than the window.
+     */
+    public void expire() {
+        long cutoff = System.currentTimeMillis() - windowMillis;
+        states.values().removeIf(state -> state.lastSeen < cutoff);
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    private static final class State {
+
+        private String lastMessage;
+        // times of the current run of identical messages, oldest first
+        private long[] times = new long[4];
+        private int count;
+        private boolean warned;
+        private volatile long lastSeen;
+
+        Result record(String message, long now, int threshold, long windowMillis) {
+            lastSeen = now;
+
+            if (lastMessage == null || !lastMessage.equalsIgnoreCase(message)) {
+                lastMessage = message;
+                count = 0;
+                warned = false;
+            }
+
+            // Slide the window
+            int expired = 0;
+            while (expired < count && times[expired] <= now - windowMillis)
+                expired++;
+            if (expired > 0) {
+                System.arraycopy(times, expired, times, 0, count - expired);
+                count -= expired;
+                if (count == 0)
+                    warned = false;
+            }
+
+            if (count >= threshold) {
+                if (warned)
+                    return Result.SUPPRESSED;
+                warned = true;
+                return Result.WARN;
+            }
+
+            if (count == times.length)
+                times = Arrays.copyOf(times, Math.max(threshold, count * 2));
+            times[count++] = now;
+            return Result.ALLOWED;
+        }
+    }
+}
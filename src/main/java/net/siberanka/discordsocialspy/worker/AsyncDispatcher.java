@@ -2,70 +2,174 @@ package net.siberanka.discordsocialspy.worker;
 
 import org.bukkit.plugin.Plugin;
 
-import java.net.URI;
+import java.io.File;
+import java.io.IOException;
 import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Instant;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.*;
 
 public class AsyncDispatcher {
 
+    // Built-in destinations, fed by the webhook and sign-webhook settings
+    public static final String DEFAULT = "default";
+    public static final String SIGN = "sign";
+
     private final Plugin plugin;
 
-    private BlockingQueue<Runnable> queue;
-    private ScheduledExecutorService dispatcherExecutor;
+    private ScheduledExecutorService retryExecutor;
     private ExecutorService senderExecutor;
     private HttpClient client;
 
-    private volatile String webhook;
-    private volatile String signWebhook;
+    private volatile boolean running = true;
+    private final CountDownLatch replayed = new CountDownLatch(1);
+
+    private final Map<String, Destination> destinations = new ConcurrentHashMap<>();
+    private volatile Router router = Router.empty();
+    // Destinations that may receive new messages
+    private volatile Set<String> known = Set.of(DEFAULT, SIGN);
+
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+    private final MessageSpool spool;
+    private final ExecutorService spoolWriter;
+
+    private final int queueSize;
+    private final DispatcherMetrics metrics = new DispatcherMetrics();
+
     private volatile String prefix;
     private volatile String username;
     private volatile String avatarUrl;
+    private volatile EmbedTemplates templates = EmbedTemplates.defaults();
 
     private int maxRetries;
     private int retryInterval;
     private int rateLimitWait;
 
+    private final int batchSize;
+    private final long lingerNanos;
+
     public AsyncDispatcher(
             Plugin plugin,
             int senderThreads,
-            int dispatcherThreads,
             int queueSize,
             int maxRetries,
             int retryInterval,
-            int rateLimitWait) {
+            int rateLimitWait,
+            int batchSize,
+            long lingerMs,
+            boolean durable) {
         this.plugin = plugin;
 
-        queue = new LinkedBlockingQueue<>(queueSize);
-        dispatcherExecutor = Executors.newScheduledThreadPool(dispatcherThreads <= 0 ? 1 : dispatcherThreads);
-        senderExecutor = Executors.newFixedThreadPool(senderThreads <= 0 ? 1 : senderThreads);
+        this.queueSize = queueSize;
+        retryExecutor = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "DiscordSocialSpy-Retry"));
+        senderExecutor = Executors.newFixedThreadPool(senderThreads <= 0 ? 1 : senderThreads,
+                r -> daemon(r, "DiscordSocialSpy-Sender"));
 
         this.maxRetries = maxRetries;
         this.retryInterval = retryInterval;
         this.rateLimitWait = rateLimitWait;
+        this.batchSize = batchSize <= 0 ? 1 : batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, lingerMs));
 
+        // Requests are sent with sendAsync, the sender threads only complete the responses
         client = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(5))
+                .executor(senderExecutor)
                 .build();
 
-        dispatcherExecutor.scheduleAtFixedRate(this::processQueue, 1, 1, TimeUnit.SECONDS);
+        spool = durable ? openSpool() : null;
+        spoolWriter = spool == null ? null : Executors.newSingleThreadExecutor(r -> daemon(r, "DiscordSocialSpy-Spool"));
+        if (spool != null)
+            retryExecutor.scheduleWithFixedDelay(this::forceSpool, 1, 1, TimeUnit.SECONDS);
+
+        destination(DEFAULT);
+        destination(SIGN);
+    }
+
+    private static Thread daemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Starts delivery once the destinations are configured. Messages left in
+     * the spool by the previous run are sent before anything queued since.
+     */
+    public void start() {
+        if (replayed.getCount() == 0)
+            return;
+
+        if (spool == null) {
+            replayed.countDown();
+            return;
+        }
+
+        daemon(() -> {
+            try {
+                replaySpool();
+            } finally {
+                replayed.countDown();
+            }
+        }, "DiscordSocialSpy-Replay").start();
     }
 
     // === SETTERS ===
 
     public void setWebhook(String v) {
-        webhook = v;
+        setWebhook(v == null ? List.of() : List.of(v));
+    }
+
+    /**
+     * @param v webhook URLs of the same channel, requests are spread over them
+     */
+    public void setWebhook(List<String> v) {
+        destination(DEFAULT).setUrls(v);
+    }
+
+    public void setSignWebhook(List<String> v) {
+        destination(SIGN).setUrls(v);
     }
 
-    public void setSignWebhook(String v) {
-        signWebhook = v;
+    public List<String> getSignWebhook() {
+        return destination(SIGN).urls();
     }
 
-    public String getSignWebhook() {
-        return signWebhook;
+    /**
+     * Replaces the named webhooks and the routing table. Routes to a webhook
+     * that is not configured use the default one. A webhook removed from the
+     * config keeps its URL until its queue is drained.
+     *
+     * @param webhooks destination name to webhook URLs, besides the built-in ones
+     */
+    public void setRoutes(Map<String, List<String>> webhooks, Router router) {
+        Set<String> known = new HashSet<>(List.of(DEFAULT, SIGN));
+
+        for (Map.Entry<String, List<String>> entry : webhooks.entrySet()) {
+            String name = normalizeName(entry.getKey());
+            if (name == null || name.equals(DEFAULT) || name.equals(SIGN)) {
+                plugin.getLogger().warning("[DiscordSocialSpy] Invalid webhook name: " + entry.getKey());
+                continue;
+            }
+            destination(name).setUrls(entry.getValue());
+            known.add(name);
+        }
+
+        for (String target : router.targets()) {
+            if (!known.contains(target))
+                plugin.getLogger().warning("[DiscordSocialSpy] Route to unknown webhook \"" + target
+                        + "\", the default webhook is used");
+        }
+
+        this.known = Set.copyOf(known);
+        this.router = router;
     }
 
     public void setPrefix(String v) {
@@ -80,12 +184,97 @@ public class AsyncDispatcher {
         avatarUrl = v;
     }
 
+    public void setTemplates(EmbedTemplates v) {
+        templates = v;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy v) {
+        overflowPolicy = v;
+        if (v != OverflowPolicy.COALESCE) {
+            for (Destination destination : destinations.values())
+                destination.clearPending();
+        }
+    }
+
+    // === COUNTERS ===
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public DispatcherMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return queued messages per destination, sorted by name
+     */
+    public Map<String, Integer> getQueueSizes() {
+        Map<String, Integer> sizes = new TreeMap<>();
+        for (Destination destination : destinations.values())
+            sizes.put(destination.name(), destination.queueSize());
+        return sizes;
+    }
+
+    public int getQueueSize() {
+        int size = 0;
+        for (Destination destination : destinations.values())
+            size += destination.queueSize();
+        return size;
+    }
+
+    /**
+     * @return the capacity of a single destination queue
+     */
+    public int getQueueCapacity() {
+        return queueSize;
+    }
+
+    public long getAcceptedCount() {
+        long sum = 0;
+        for (Destination destination : destinations.values())
+            sum += destination.accepted();
+        return sum;
+    }
+
+    public long getDroppedCount() {
+        long sum = 0;
+        for (Destination destination : destinations.values())
+            sum += destination.dropped();
+        return sum;
+    }
+
+    public long getCoalescedCount() {
+        long sum = 0;
+        for (Destination destination : destinations.values())
+            sum += destination.coalesced();
+        return sum;
+    }
+
+    public long getSpilledCount() {
+        long sum = 0;
+        for (Destination destination : destinations.values())
+            sum += destination.spilled();
+        return sum;
+    }
+
+    // === QUEUEING ===
+
     public void queueTextMessage(String text) {
         queueTextMessage(text, null);
     }
 
     public void queueTextMessage(String text, String pingRole) {
-        queue.offer(() -> sendTextMessage(prefix + text, webhook, pingRole));
+        queueTextMessage(EventType.SYSTEM, null, null, text, pingRole);
+    }
+
+    /**
+     * @param commandRoot lower case command without slash, or null
+     * @param cause       filter cause if the message was blocked, or null
+     */
+    public void queueTextMessage(EventType type, String commandRoot, String cause, String text, String pingRole) {
+        Destination destination = route(type, commandRoot, cause);
+        destination.enqueue(QueuedMessage.text(destination.name(), prefix + text, pingRole));
     }
 
     public void queueEmbed(String title, String desc, String footer, boolean isSign, long timestamp) {
@@ -93,116 +282,243 @@ public class AsyncDispatcher {
     }
 
     public void queueEmbed(String title, String desc, String footer, boolean isSign, long timestamp, String pingRole) {
+        queueTemplateEmbed(EmbedTemplates.SIGN, isSign ? EventType.SIGN : EventType.SYSTEM, null, null,
+                timestamp, pingRole, "title", title, "description", desc, "footer", footer);
+    }
 
-        String targetWebhook = isSign && signWebhook != null && !signWebhook.isEmpty()
-                ? signWebhook
-                : webhook;
+    /**
+     * Queues an embed rendered from the template of the given event type.
+     *
+     * @param commandRoot lower case command without slash, or null
+     * @param cause       filter cause if the message was blocked, or null
+     * @param values      pairs of placeholder name and value
+     */
+    public void queueTemplateEmbed(String template, EventType type, String commandRoot, String cause,
+            long timestamp, String pingRole, String... values) {
+        Destination destination = route(type, commandRoot, cause);
+        destination.enqueue(QueuedMessage.embed(destination.name(), template, values, timestamp, pingRole));
+    }
 
-        queue.offer(() -> sendEmbed(title, desc, footer, targetWebhook, timestamp, pingRole));
+    /**
+     * Picks the destination of an event. Routes to a webhook without a URL
+     * fall back to the sign webhook (for signs) and then the default one.
+     */
+    private Destination route(EventType type, String commandRoot, String cause) {
+        String name = router.resolve(type, commandRoot, cause);
+        Destination destination = name == null || !known.contains(name) ? null : destinations.get(name);
+        if (destination != null && destination.isConfigured())
+            return destination;
+
+        if (type == EventType.SIGN) {
+            destination = destinations.get(SIGN);
+            if (destination.isConfigured())
+                return destination;
+        }
+        return destinations.get(DEFAULT);
     }
 
-    private void processQueue() {
+    private Destination destination(String name) {
+        return destinations.computeIfAbsent(name, k -> new Destination(this, k));
+    }
 
-        Runnable task;
-        while ((task = queue.poll()) != null) {
+    // Names end up in thread and file names
+    private static String normalizeName(String name) {
+        String normalized = name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+        return normalized.matches("[a-z0-9_-]{1,32}") ? normalized : null;
+    }
 
-            try {
-                senderExecutor.submit(task);
-            } catch (Exception ex) {
-                plugin.getLogger().warning("[DiscordSocialSpy] Failed to submit task: " + ex.getMessage());
-            }
-        }
+    // === SHARED STATE FOR DESTINATIONS ===
+
+    Plugin getPlugin() {
+        return plugin;
     }
 
-    private void sendTextMessage(String text, String targetWebhook, String pingRole) {
+    HttpClient getClient() {
+        return client;
+    }
 
-        if (targetWebhook == null || targetWebhook.isBlank())
-            return;
+    String getUsername() {
+        return username;
+    }
 
-        String content = escape(text);
-        String allowedMentions = "\"allowed_mentions\":{\"parse\":[]}";
-        if (pingRole != null && !pingRole.isBlank()) {
-            content = "<@&" + escape(pingRole) + "> " + content;
-            allowedMentions = "\"allowed_mentions\":{\"roles\":[\"" + escape(pingRole) + "\"]}";
-        }
+    String getAvatarUrl() {
+        return avatarUrl;
+    }
 
-        String json = "{"
-                + "\"content\":\"" + content + "\","
-                + "\"username\":\"" + escape(username) + "\","
-                + "\"avatar_url\":\"" + escape(avatarUrl) + "\","
-                + allowedMentions
-                + "}";
+    EmbedTemplates getTemplates() {
+        return templates;
+    }
 
-        sendJSON(json, targetWebhook);
+    int batchSize() {
+        return batchSize;
     }
 
-    private void sendEmbed(String title, String desc, String footer, String targetWebhook, long timestamp,
-            String pingRole) {
+    long lingerNanos() {
+        return lingerNanos;
+    }
 
-        if (targetWebhook == null || targetWebhook.isBlank())
-            return;
+    int getMaxRetries() {
+        return maxRetries;
+    }
+
+    int getRetryInterval() {
+        return retryInterval;
+    }
+
+    int getRateLimitWait() {
+        return rateLimitWait;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    boolean isDurable() {
+        return spool != null;
+    }
+
+    void awaitReplay() throws InterruptedException {
+        replayed.await();
+    }
 
-        String isoTime = Instant.ofEpochMilli(timestamp).toString();
+    void warn(String message) {
+        plugin.getLogger().warning("[DiscordSocialSpy] " + message);
+    }
 
-        String contentField = "";
-        String allowedMentions = "\"allowed_mentions\":{\"parse\":[]}";
-        if (pingRole != null && !pingRole.isBlank()) {
-            contentField = "\"content\":\"<@&" + escape(pingRole) + ">\",";
-            allowedMentions = "\"allowed_mentions\":{\"roles\":[\"" + escape(pingRole) + "\"]}";
+    // === SPOOL ===
+
+    private MessageSpool openSpool() {
+        try {
+            plugin.getDataFolder().mkdirs();
+            return new MessageSpool(
+                    new File(plugin.getDataFolder(), "spool.dat").toPath(),
+                    new File(plugin.getDataFolder(), "spool.checkpoint").toPath(),
+                    new File(plugin.getDataFolder(), "spool-dead.dat").toPath());
+        } catch (IOException ex) {
+            plugin.getLogger().warning("[DiscordSocialSpy] Cannot open spool, queued messages will not survive a restart: "
+                    + ex.getMessage());
+            return null;
         }
+    }
 
-        String json = "{"
-                + contentField
-                + "\"username\":\"" + escape(username) + "\","
-                + "\"avatar_url\":\"" + escape(avatarUrl) + "\","
-                + "\"embeds\":[{"
-                + "\"title\":\"" + escape(title) + "\","
-                + "\"description\":\"" + escape(desc) + "\","
-                + "\"footer\":{\"text\":\"" + escape(footer) + "\"},"
-                + "\"timestamp\":\"" + isoTime + "\""
-                + "}],"
-                + allowedMentions
-                + "}";
-
-        sendJSON(json, targetWebhook);
-    }
-
-    private void sendJSON(String json, String targetWebhook) {
-
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(targetWebhook))
-                .timeout(Duration.ofSeconds(10))
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(json))
-                .build();
+    /**
+     * Adds the message to the spool before it is queued. The spool writer
+     * thread writes everything added while it was busy in one go.
+     */
+    void persist(QueuedMessage message) {
+        if (spool == null)
+            return;
+        try {
+            if (spool.append(message))
+                spoolWriter.execute(this::flushSpool);
+        } catch (IOException ex) {
+            plugin.getLogger().warning("[DiscordSocialSpy] Failed to write spool: " + ex.getMessage());
+        } catch (RejectedExecutionException ignored) {
+            // shutting down, closing the spool writes the buffer
+        }
+    }
 
-        client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+    private void flushSpool() {
+        try {
+            spool.flush();
+        } catch (IOException ex) {
+            plugin.getLogger().warning("[DiscordSocialSpy] Failed to write spool: " + ex.getMessage());
+        }
+    }
 
-            if (error != null) {
-                plugin.getLogger().warning("[DiscordSocialSpy] HTTP error: " + error.getMessage());
-                return;
-            }
+    /**
+     * Releases messages that used up their retries from the spool, keeping
+     * them for the next start.
+     */
+    void deadLetter(List<QueuedMessage> messages) {
+        if (spool == null)
+            return;
+        try {
+            spool.deadLetter(messages);
+        } catch (IOException ex) {
+            plugin.getLogger().warning("[DiscordSocialSpy] Failed to write spool: " + ex.getMessage());
+        }
+    }
 
-            int code = response.statusCode();
+    void acknowledge(QueuedMessage message) {
+        if (spool != null)
+            spool.acknowledge(message);
+    }
 
-            if (code == 204 || code == 200)
-                return;
+    void acknowledge(List<QueuedMessage> messages) {
+        if (spool == null)
+            return;
+        for (QueuedMessage message : messages)
+            spool.acknowledge(message);
+    }
 
-            plugin.getLogger().warning("[DiscordSocialSpy] HTTP " + code + " Response: " + response.body());
-        });
+    private void forceSpool() {
+        try {
+            spool.force();
+        } catch (IOException ex) {
+            plugin.getLogger().warning("[DiscordSocialSpy] Failed to flush spool: " + ex.getMessage());
+        }
     }
 
-    private String escape(String s) {
-        if (s == null)
-            return "";
-        return s
-                .replace("\\", "\\\\")
-                .replace("\"", "\\\"")
-                .replace("\n", "\\n");
+    /**
+     * Hands messages left in the spool by the previous run to their
+     * destinations. Messages of a destination that no longer exists go to
+     * the default webhook.
+     */
+    private void replaySpool() {
+        try {
+            List<QueuedMessage> batch;
+            int replayed = 0;
+            while (running && !(batch = spool.replay(queueSize)).isEmpty()) {
+
+                Map<Destination, List<QueuedMessage>> byDestination = new LinkedHashMap<>();
+                for (QueuedMessage message : batch) {
+                    Destination destination = message.destination == null ? null : destinations.get(message.destination);
+                    if (destination == null || !destination.isConfigured())
+                        destination = destinations.get(DEFAULT);
+                    byDestination.computeIfAbsent(destination, k -> new ArrayList<>()).add(message);
+                }
+
+                for (Map.Entry<Destination, List<QueuedMessage>> entry : byDestination.entrySet())
+                    entry.getKey().processBatch(entry.getValue());
+                replayed += batch.size();
+            }
+            if (replayed > 0)
+                plugin.getLogger().info("[DiscordSocialSpy] Replayed " + replayed + " undelivered messages from spool");
+        } catch (IOException ex) {
+            plugin.getLogger().warning("[DiscordSocialSpy] Failed to replay spool: " + ex.getMessage());
+        } catch (InterruptedException e) {
+            // shutting down, the rest is replayed on the next start
+        }
+    }
+
+    void schedule(Runnable task, long delayMs) {
+        try {
+            retryExecutor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // Still in the spool (if enabled), it is replayed on the next start
+            plugin.getLogger().warning("[DiscordSocialSpy] Dropped message during shutdown");
+        }
     }
 
     public void shutdown() {
-        dispatcherExecutor.shutdownNow();
+        running = false;
+        replayed.countDown();
+
+        for (Destination destination : destinations.values())
+            destination.shutdown();
+
+        retryExecutor.shutdownNow();
         senderExecutor.shutdownNow();
+        if (spoolWriter != null)
+            spoolWriter.shutdown();
+
+        if (spool != null) {
+            try {
+                spool.close();
+            } catch (IOException ex) {
+                plugin.getLogger().warning("[DiscordSocialSpy] Failed to close spool: " + ex.getMessage());
+            }
+        }
     }
 }
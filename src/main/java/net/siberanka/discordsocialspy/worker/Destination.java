@@ -0,0 +1,636 @@
+package net.siberanka.discordsocialspy.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * One channel the dispatcher routes messages to.
+ * <p>
+ * Every destination has its own queue, consumer thread, spill file and
+ * rate limit buckets, so a flood or a rate limited channel only delays its
+ * own messages. The HTTP client, retry scheduler and spool are shared.
+ * <p>
+ * A destination may have several webhook URLs of the same channel. Each
+ * request goes to the URL with the most rate limit budget left, and a URL
+ * answering 401 or 404 (deleted webhook) is skipped until the next reload.
+ * <p>
+ * At most {@value #MAX_IN_FLIGHT} batches are sent or waiting for a retry at
+ * a time. Beyond that the consumer stops taking messages, so when Discord
+ * slows down the queue fills up and the overflow policy applies there.
+ */
+final class Destination {
+
+    // Discord limits for a single webhook message
+    private static final int MAX_CONTENT_LENGTH = 2000;
+    private static final int MAX_EMBEDS = 10;
+
+    private static final int MAX_IN_FLIGHT = 4;
+
+    private final AsyncDispatcher owner;
+    private final String name;
+    private volatile List<Endpoint> endpoints = List.of();
+    private final AtomicInteger nextEndpoint = new AtomicInteger();
+
+    private final BlockingQueue<QueuedMessage> queue;
+    private final Thread consumer;
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+    private final Map<String, QueuedMessage> pendingByContent = new ConcurrentHashMap<>();
+    private SpillFile spill;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+
+    Destination(AsyncDispatcher owner, String name) {
+        this.owner = owner;
+        this.name = name;
+        this.queue = new LinkedBlockingQueue<>(owner.getQueueCapacity());
+
+        // Messages spilled before the last shutdown are sent first. Those that
+        // were spooled are replayed by the spool, only the others are queued.
+        if (getSpillFile().length() > 0) {
+            SpillFile file = spill();
+            if (file != null) {
+                try {
+                    file.refill(queue, owner.isDurable());
+                } catch (IOException ex) {
+                    owner.warn("Failed to read spill file: " + ex.getMessage());
+                }
+                for (QueuedMessage message : queue)
+                    owner.persist(message);
+            }
+        }
+
+        consumer = new Thread(this::consume, "DiscordSocialSpy-Dispatcher-" + name);
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    String name() {
+        return name;
+    }
+
+    List<String> urls() {
+        List<String> urls = new ArrayList<>();
+        for (Endpoint endpoint : endpoints)
+            urls.add(endpoint.url);
+        return urls;
+    }
+
+    /**
+     * Replaces the webhook URLs. URLs that stay keep their rate limit state,
+     * failed ones are tried again.
+     */
+    void setUrls(List<String> urls) {
+        Map<String, Endpoint> current = new HashMap<>();
+        for (Endpoint endpoint : endpoints)
+            current.put(endpoint.url, endpoint);
+
+        List<Endpoint> result = new ArrayList<>();
+        for (String url : urls) {
+            if (url == null || url.isBlank())
+                continue;
+            Endpoint endpoint = current.remove(url.trim());
+            if (endpoint == null)
+                endpoint = new Endpoint(url.trim(), owner::schedule);
+            endpoint.failed = false;
+            if (!result.contains(endpoint))
+                result.add(endpoint);
+        }
+        endpoints = List.copyOf(result);
+    }
+
+    /**
+     * @return true if at least one URL can still be used
+     */
+    boolean isConfigured() {
+        for (Endpoint endpoint : endpoints) {
+            if (!endpoint.failed)
+                return true;
+        }
+        return false;
+    }
+
+    // === COUNTERS ===
+
+    int queueSize() {
+        return queue.size();
+    }
+
+    long accepted() {
+        return accepted.sum();
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+
+    long coalesced() {
+        return coalesced.sum();
+    }
+
+    long spilled() {
+        return spilled.sum();
+    }
+
+    void clearPending() {
+        pendingByContent.clear();
+    }
+
+    // === QUEUE ===
+
+    void enqueue(QueuedMessage message) {
+
+        OverflowPolicy policy = owner.getOverflowPolicy();
+
+        if (policy == OverflowPolicy.COALESCE && coalesce(message)) {
+            coalesced.increment();
+            return;
+        }
+
+        // Spooled ahead of the queue and the spill file, so it survives a crash before delivery
+        owner.persist(message);
+
+        switch (policy) {
+
+            case DROP_OLDEST -> {
+                while (!queue.offer(message)) {
+                    QueuedMessage oldest = queue.poll();
+                    if (oldest != null)
+                        discard(oldest);
+                }
+                accepted.increment();
+            }
+
+            case SPILL -> {
+                SpillFile file = spill();
+                try {
+                    if (file != null && file.offer(queue, message)) {
+                        spilled.increment();
+                        accepted.increment();
+                    } else if (file != null || queue.offer(message)) {
+                        accepted.increment();
+                    } else {
+                        discard(message);
+                    }
+                } catch (IOException ex) {
+                    discard(message);
+                    owner.warn("Failed to spill message: " + ex.getMessage());
+                }
+            }
+
+            default -> {
+                if (queue.offer(message)) {
+                    accepted.increment();
+                } else {
+                    if (policy == OverflowPolicy.COALESCE)
+                        pendingByContent.remove(message.contentKey(), message);
+                    discard(message);
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the message into an identical pending one.
+     * A new message is registered before it is offered, so the consumer always
+     * finds it when taking it from the queue.
+     *
+     * @return true if the message was merged
+     */
+    private boolean coalesce(QueuedMessage message) {
+        boolean[] merged = { false };
+        pendingByContent.compute(message.contentKey(), (k, existing) -> {
+            if (existing == null)
+                return message;
+            existing.repeats++;
+            merged[0] = true;
+            return existing;
+        });
+        return merged[0];
+    }
+
+    private void discard(QueuedMessage message) {
+        dropped.increment();
+        owner.acknowledge(message);
+    }
+
+    // === SPILL ===
+
+    // The default destination keeps the file name of older versions
+    private File getSpillFile() {
+        String file = name.equals(AsyncDispatcher.DEFAULT) ? "spill.dat" : "spill-" + name + ".dat";
+        return new File(owner.getPlugin().getDataFolder(), file);
+    }
+
+    private synchronized SpillFile spill() {
+        if (spill == null) {
+            try {
+                owner.getPlugin().getDataFolder().mkdirs();
+                File file = getSpillFile();
+                spill = new SpillFile(file.toPath(), new File(file.getPath() + ".pos").toPath());
+            } catch (IOException ex) {
+                owner.warn("Cannot open spill file: " + ex.getMessage());
+            }
+        }
+        return spill;
+    }
+
+    private void refill(SpillFile file) {
+        try {
+            file.refill(queue, false);
+        } catch (IOException ex) {
+            owner.warn("Failed to read spill file: " + ex.getMessage());
+        }
+    }
+
+    // === CONSUMER ===
+
+    /**
+     * Sleeps in take() until work arrives, then waits at most the linger time
+     * (or until a full batch is pending) for more messages to merge.
+     */
+    private void consume() {
+
+        // Spooled messages of the previous run go out before anything new
+        try {
+            owner.awaitReplay();
+        } catch (InterruptedException e) {
+            return;
+        }
+
+        List<QueuedMessage> pending = new ArrayList<>();
+        int batchSize = owner.batchSize();
+        long lingerNanos = owner.lingerNanos();
+
+        while (owner.isRunning()) {
+            try {
+                pending.add(queue.take());
+
+                long deadline = System.nanoTime() + lingerNanos;
+                while (pending.size() < batchSize) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0)
+                        break;
+
+                    QueuedMessage next = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null)
+                        break;
+                    pending.add(next);
+                }
+
+                queue.drainTo(pending);
+
+                SpillFile file = spill;
+                if (file != null)
+                    refill(file);
+
+                processBatch(pending);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception ex) {
+                owner.warn("Failed to dispatch messages to " + name + ": " + ex.getMessage());
+            } finally {
+                pending.clear();
+            }
+        }
+    }
+
+    /**
+     * Sends the messages, blocking while too many batches are in flight.
+     */
+    void processBatch(List<QueuedMessage> pending) throws InterruptedException {
+
+        // Taken messages can no longer absorb duplicates
+        if (!pendingByContent.isEmpty()) {
+            for (QueuedMessage message : pending)
+                pendingByContent.remove(message.contentKey(), message);
+        }
+
+        // Keep the original order within each type/ping group
+        Map<String, List<QueuedMessage>> groups = new LinkedHashMap<>();
+        for (QueuedMessage message : pending)
+            groups.computeIfAbsent(message.batchKey(), k -> new ArrayList<>()).add(message);
+
+        for (List<QueuedMessage> group : groups.values()) {
+            if (group.get(0).embed)
+                sendEmbedBatches(group);
+            else
+                sendTextBatches(group);
+        }
+    }
+
+    private void sendTextBatches(List<QueuedMessage> group) throws InterruptedException {
+
+        QueuedMessage first = group.get(0);
+        int batchSize = owner.batchSize();
+        int limit = MAX_CONTENT_LENGTH;
+        if (first.pingRole != null)
+            limit -= ("<@&" + first.pingRole + "> ").length();
+
+        StringBuilder content = new StringBuilder();
+        int start = 0;
+
+        for (int i = 0; i < group.size(); i++) {
+
+            QueuedMessage message = group.get(i);
+            String line = message.text == null ? "" : message.renderedText();
+
+            if (line.length() > limit) {
+                // Discord rejects it whole, send it on its own in several messages
+                if (i > start)
+                    sendTextMessage(content.toString(), group.subList(start, i), first.pingRole);
+                content.setLength(0);
+
+                List<String> parts = split(line, limit);
+                for (int p = 0; p < parts.size(); p++)
+                    sendTextMessage(parts.get(p), group.subList(i, i + 1), p == 0 ? first.pingRole : null);
+                start = i + 1;
+                continue;
+            }
+
+            int lines = i - start;
+            boolean fits = content.length() + 1 + line.length() <= limit;
+
+            if (lines > 0 && (lines >= batchSize || !fits)) {
+                sendTextMessage(content.toString(), group.subList(start, i), first.pingRole);
+                content.setLength(0);
+                start = i;
+            }
+
+            if (i > start)
+                content.append('\n');
+            content.append(line);
+        }
+
+        if (start < group.size())
+            sendTextMessage(content.toString(), group.subList(start, group.size()), first.pingRole);
+    }
+
+    /**
+     * Cuts text into pieces of at most limit characters, preferring to break
+     * at whitespace and never inside a surrogate pair.
+     */
+    private static List<String> split(String text, int limit) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+
+        while (text.length() - start > limit) {
+            int end = start + limit;
+            int space = end;
+            while (space > start + limit / 2 && !Character.isWhitespace(text.charAt(space - 1)))
+                space--;
+            if (space > start + limit / 2)
+                end = space;
+            else if (Character.isHighSurrogate(text.charAt(end - 1)))
+                end--;
+
+            parts.add(text.substring(start, end));
+            start = end;
+        }
+
+        parts.add(text.substring(start));
+        return parts;
+    }
+
+    private void sendEmbedBatches(List<QueuedMessage> group) throws InterruptedException {
+
+        int perMessage = Math.min(owner.batchSize(), MAX_EMBEDS);
+
+        for (int i = 0; i < group.size(); i += perMessage) {
+            List<QueuedMessage> batch = group.subList(i, Math.min(group.size(), i + perMessage));
+            sendEmbeds(batch, batch.get(0).pingRole);
+        }
+    }
+
+    private void sendTextMessage(String text, List<QueuedMessage> batch, String pingRole) throws InterruptedException {
+
+        if (!isConfigured()) {
+            owner.acknowledge(batch);
+            return;
+        }
+
+        send(WebhookPayload.text(text, pingRole, owner.getUsername(), owner.getAvatarUrl()), batch);
+    }
+
+    private void sendEmbeds(List<QueuedMessage> embeds, String pingRole) throws InterruptedException {
+
+        if (!isConfigured()) {
+            owner.acknowledge(embeds);
+            return;
+        }
+
+        send(WebhookPayload.embeds(embeds, pingRole, owner.getUsername(), owner.getAvatarUrl(),
+                owner.getTemplates()), embeds);
+    }
+
+    // === SENDER ===
+
+    /**
+     * Starts sending a batch once fewer than MAX_IN_FLIGHT are under way. The
+     * slot is freed when the batch is delivered, rejected or given up.
+     */
+    private void send(byte[] json, List<QueuedMessage> batch) throws InterruptedException {
+        inFlight.acquire();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        done.whenComplete((v, e) -> inFlight.release());
+        sendJSON(json, batch, 0, done);
+    }
+
+    private void sendJSON(byte[] json, List<QueuedMessage> batch, int attempt, CompletableFuture<Void> done) {
+        sendJSON(json, batch, attempt, done, false);
+    }
+
+    /**
+     * @param first the batch was rate limited, send it before the ones waiting behind it
+     */
+    private void sendJSON(byte[] json, List<QueuedMessage> batch, int attempt, CompletableFuture<Void> done,
+                          boolean first) {
+
+        Endpoint endpoint = pickEndpoint();
+        if (endpoint == null) {
+            // Every URL was deleted or removed by a reload, the batch cannot be delivered
+            owner.acknowledge(batch);
+            owner.warn("No working webhook left for " + name + ", dropped " + batch.size() + " messages");
+            done.complete(null);
+            return;
+        }
+
+        // Hold the request back until the bucket refills instead of provoking a 429
+        endpoint.bucket.submit(() -> post(endpoint, json, batch, attempt, done), first);
+    }
+
+    private void post(Endpoint endpoint, byte[] json, List<QueuedMessage> batch, int attempt,
+                      CompletableFuture<Void> done) {
+
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder()
+                    .uri(URI.create(endpoint.url))
+                    .timeout(Duration.ofSeconds(10))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(json))
+                    .build();
+        } catch (IllegalArgumentException ex) {
+            // Malformed URL in the config, it will not work before a reload either
+            endpoint.failed = true;
+            owner.warn("Invalid webhook URL for " + name + ": " + ex.getMessage());
+            sendJSON(json, batch, attempt, done);
+            return;
+        }
+
+        DispatcherMetrics metrics = owner.getMetrics();
+        long sentAt = System.nanoTime();
+
+        owner.getClient().sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+
+            long now = System.nanoTime();
+
+            if (error != null) {
+                metrics.recordError(now - sentAt);
+                retry(json, batch, attempt, done, "HTTP error: " + error.getMessage());
+                return;
+            }
+
+            endpoint.bucket.update(response.headers());
+
+            int code = response.statusCode();
+            metrics.recordResponse(code, now - sentAt);
+
+            if (code == 204 || code == 200) {
+                for (QueuedMessage message : batch)
+                    metrics.recordDelivered(message.queuedAt, now);
+                owner.acknowledge(batch);
+                done.complete(null);
+                return;
+            }
+
+            if (code == 429) {
+                // Rate limited requests are not failures, Discord tells us when to come back
+                endpoint.bucket.block(response.headers(), owner.getRateLimitWait() * 1000L);
+                sendJSON(json, batch, attempt, done, true);
+                return;
+            }
+
+            if (code == 401 || code == 404) {
+                // Deleted or invalid webhook, the other URLs take over
+                metrics.recordFailover();
+                if (!endpoint.failed) {
+                    endpoint.failed = true;
+                    owner.warn("Webhook of " + name + " answered HTTP " + code + ", skipping it until reload");
+                }
+                sendJSON(json, batch, attempt, done);
+                return;
+            }
+
+            if (code >= 500) {
+                retry(json, batch, attempt, done, "HTTP " + code + " Response: " + response.body());
+                return;
+            }
+
+            // Other client errors will fail again, do not keep them in the spool
+            owner.acknowledge(batch);
+            owner.warn("HTTP " + code + " from " + name + " Response: " + response.body());
+            done.complete(null);
+        });
+    }
+
+    /**
+     * Picks the working URL with the most requests left in its bucket, or the
+     * one that refills first if all are empty. Ties rotate so that URLs whose
+     * limits are not known yet share the load.
+     */
+    private Endpoint pickEndpoint() {
+        List<Endpoint> all = endpoints;
+        int size = all.size();
+        if (size == 0)
+            return null;
+
+        int start = Math.floorMod(nextEndpoint.getAndIncrement(), size);
+        Endpoint best = null;
+        long bestBudget = Long.MIN_VALUE;
+
+        for (int i = 0; i < size; i++) {
+            Endpoint endpoint = all.get((start + i) % size);
+            if (endpoint.failed)
+                continue;
+            long budget = endpoint.bucket.budget();
+            if (budget > bestBudget) {
+                best = endpoint;
+                bestBudget = budget;
+            }
+        }
+        return best;
+    }
+
+    private void retry(byte[] json, List<QueuedMessage> batch, int attempt, CompletableFuture<Void> done,
+                       String reason) {
+
+        if (attempt >= owner.getMaxRetries()) {
+            // Moved out of the way of the checkpoint, a spooled message is sent again after the next start
+            owner.deadLetter(batch);
+            owner.warn(reason + " (" + name + ", giving up after " + (attempt + 1) + " attempts"
+                    + (owner.isDurable() ? ", kept for the next start" : "") + ")");
+            done.complete(null);
+            return;
+        }
+
+        owner.getMetrics().recordRetry();
+
+        // Exponential backoff: retry_interval, 2x, 4x, ...
+        long delay = Math.max(1, owner.getRetryInterval()) * 1000L << Math.min(attempt, 10);
+        owner.schedule(() -> sendJSON(json, batch, attempt + 1, done), delay);
+    }
+
+    /**
+     * A webhook URL with its own Discord rate limit.
+     */
+    private static final class Endpoint {
+
+        final String url;
+        final RateLimitBucket bucket;
+        volatile boolean failed;
+
+        Endpoint(String url, ObjLongConsumer<Runnable> scheduler) {
+            this.url = url;
+            this.bucket = new RateLimitBucket(scheduler);
+        }
+    }
+
+    void shutdown() {
+        consumer.interrupt();
+        try {
+            consumer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        SpillFile file = spill;
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package net.siberanka.discordsocialspy.worker;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latencies of webhook delivery, shared by all destinations.
+ * Everything is a LongAdder or a lock-free histogram, so the sender threads
+ * never wait on each other to record.
+ */
+public final class DispatcherMetrics {
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failovers = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+    // HTTP round trip of a single request
+    private final LatencyHistogram requestLatency = new LatencyHistogram();
+    // From queueing a message until Discord accepted it
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+    void recordResponse(int status, long nanos) {
+        requests.increment();
+        requestLatency.recordNanos(nanos);
+        statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+        if (status == 429)
+            rateLimited.increment();
+    }
+
+    void recordError(long nanos) {
+        requests.increment();
+        requestLatency.recordNanos(nanos);
+        errors.increment();
+    }
+
+    void recordDelivered(long queuedAt, long now) {
+        delivered.increment();
+        deliveryLatency.recordNanos(now - queuedAt);
+    }
+
+    void recordRetry() {
+        retries.increment();
+    }
+
+    void recordFailover() {
+        failovers.increment();
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getFailovers() {
+        return failovers.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getRateLimited() {
+        return rateLimited.sum();
+    }
+
+    /**
+     * @return response count per HTTP status, sorted by status
+     */
+    public Map<Integer, Long> getStatuses() {
+        Map<Integer, Long> result = new TreeMap<>();
+        for (Map.Entry<Integer, LongAdder> entry : statuses.entrySet())
+            result.put(entry.getKey(), entry.getValue().sum());
+        return result;
+    }
+
+    public LatencyHistogram getRequestLatency() {
+        return requestLatency;
+    }
+
+    public LatencyHistogram getDeliveryLatency() {
+        return deliveryLatency;
+    }
+}
@@ -0,0 +1,88 @@
+package net.siberanka.discordsocialspy.worker;
+
+import net.siberanka.discordsocialspy.util.EmbedTemplate;
+import org.bukkit.plugin.Plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The compiled embed template of every event type.
+ * <p>
+ * Each type has a JSON file in the data folder, copied from the jar on first
+ * start so it can be edited. A file that cannot be compiled falls back to the
+ * bundled version. Besides the values given when queueing, every template can
+ * use %timestamp% and %repeat% (" (xN)" for coalesced messages).
+ */
+public final class EmbedTemplates {
+
+    public static final String COMMAND = "command";
+    public static final String SIGN = "sign";
+
+    private static final Map<String, String> FILES = Map.of(
+            COMMAND, "embed.json",
+            SIGN, "embed-sign.json");
+
+    private static volatile EmbedTemplates defaults;
+
+    private final Map<String, EmbedTemplate> templates;
+
+    private EmbedTemplates(Map<String, EmbedTemplate> templates) {
+        this.templates = templates;
+    }
+
+    /**
+     * The templates bundled in the jar.
+     */
+    public static EmbedTemplates defaults() {
+        EmbedTemplates result = defaults;
+        if (result == null) {
+            Map<String, EmbedTemplate> templates = new HashMap<>();
+            for (Map.Entry<String, String> file : FILES.entrySet())
+                templates.put(file.getKey(), EmbedTemplate.compile(readBundled(file.getValue())));
+            defaults = result = new EmbedTemplates(Map.copyOf(templates));
+        }
+        return result;
+    }
+
+    public static EmbedTemplates load(Plugin plugin) {
+        Map<String, EmbedTemplate> templates = new HashMap<>();
+
+        for (Map.Entry<String, String> file : FILES.entrySet()) {
+            File target = new File(plugin.getDataFolder(), file.getValue());
+            if (!target.exists())
+                plugin.saveResource(file.getValue(), false);
+
+            try {
+                String json = Files.readString(target.toPath(), StandardCharsets.UTF_8);
+                templates.put(file.getKey(), EmbedTemplate.compile(json));
+            } catch (IOException | IllegalArgumentException ex) {
+                plugin.getLogger().warning("[DiscordSocialSpy] Invalid embed template " + file.getValue()
+                        + ", using the default: " + ex.getMessage());
+                templates.put(file.getKey(), defaults().get(file.getKey()));
+            }
+        }
+
+        return new EmbedTemplates(Map.copyOf(templates));
+    }
+
+    EmbedTemplate get(String type) {
+        EmbedTemplate template = templates.get(type);
+        return template != null ? template : defaults().templates.get(SIGN);
+    }
+
+    private static String readBundled(String name) {
+        try (InputStream in = EmbedTemplates.class.getResourceAsStream("/" + name)) {
+            if (in == null)
+                throw new IllegalStateException("Missing bundled template " + name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot read bundled template " + name, ex);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package net.siberanka.discordsocialspy.worker;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Processes captured events off the region threads.
+ * <p>
+ * Listeners only take an immutable snapshot of the event (and decide
+ * whether to cancel it), then submit the rest here: spam checks, text
+ * building, console logging, the audit log and queueing for Discord. A
+ * single thread keeps the events of a player in order.
+ * <p>
+ * The queue is bounded. When it is full new events are dropped and
+ * counted: running them on the submitting thread would overtake the queued
+ * events of the same player, and blocking would stall the region.
+ */
+public final class EventPipeline {
+
+    private final Logger logger;
+    private final ThreadPoolExecutor executor;
+    private final AtomicBoolean overflowWarned = new AtomicBoolean();
+    private final LongAdder dropped = new LongAdder();
+
+    public EventPipeline(int capacity, Logger logger) {
+        this.logger = logger;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(capacity, 16)),
+                r -> {
+                    Thread thread = new Thread(r, "DiscordSocialSpy-Events");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (task, pool) -> {
+                    if (pool.isShutdown())
+                        return;
+                    dropped.increment();
+                    if (overflowWarned.compareAndSet(false, true))
+                        logger.warning("[DiscordSocialSpy] Event pipeline is full, dropping events "
+                                + "(raise async.event_queue_size if this happens often)");
+                });
+    }
+
+    public void submit(Runnable task) {
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (Exception ex) {
+                logger.warning("[DiscordSocialSpy] Failed to process event: " + ex);
+            }
+        });
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Processes the events still queued, then stops the thread.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS))
+                logger.warning("[DiscordSocialSpy] Event pipeline did not finish in time, "
+                        + executor.getQueue().size() + " events skipped");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
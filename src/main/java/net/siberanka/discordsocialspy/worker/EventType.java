@@ -0,0 +1,34 @@
+package net.siberanka.discordsocialspy.worker;
+
+import java.util.Locale;
+
+/**
+ * The kind of event a queued message comes from, used to pick its destination.
+ */
+public enum EventType {
+
+    /** A logged command. */
+    COMMAND,
+
+    /** A blocked chat message. */
+    CHAT,
+
+    /** A placed or edited sign. */
+    SIGN,
+
+    /** Messages of the plugin itself, e.g. rate limit summaries. */
+    SYSTEM;
+
+    /**
+     * @return the type, or null if the value is not a known type
+     */
+    public static EventType parse(String value) {
+        if (value == null)
+            return null;
+        try {
+            return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
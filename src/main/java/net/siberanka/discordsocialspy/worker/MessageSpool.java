@@ -0,0 +1,378 @@
+package net.siberanka.discordsocialspy.worker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Append-only write-ahead log of the messages being sent.
+ * <p>
+ * A message is appended when a destination accepts it, before it enters the
+ * queue or the spill file, and acknowledged once Discord accepted it (or
+ * rejected it for good). Appends only go to a memory buffer; a writer thread
+ * flushes everything buffered since its last run in one write (group
+ * commit), so the enqueueing thread never waits for the file.
+ * <p>
+ * Acknowledging flips the state byte of the record in place, in the file or
+ * still in the buffer, and the checkpoint file holds the offset of the
+ * oldest unacknowledged record, so after a restart or crash only
+ * undelivered messages are replayed, in their original order.
+ * <p>
+ * When nothing is pending the log is truncated, and once most of it lies
+ * before the checkpoint it is rewritten from there, so it stays small under
+ * constant load. Messages that used up their retries are moved to a dead
+ * letter file instead of pinning the checkpoint; they are appended to the
+ * log again, and so tried once more, on the next start.
+ * <p>
+ * Record layout: [int length][byte state][message bytes], length covers the
+ * state byte and the message. The id of a record is its offset plus the
+ * bytes dropped from the front of the log by truncating and compacting, so
+ * ids never repeat while the spool is open.
+ */
+final class MessageSpool {
+
+    private static final int HEADER = Integer.BYTES + 1;
+    private static final byte PENDING = 0;
+    private static final byte DELIVERED = 1;
+
+    // Minimum amount of delivered records before the checkpoint worth a rewrite
+    private static final long COMPACT_BYTES = 4L << 20;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path logPath;
+    private final FileChannel checkpointFile;
+    private final FileChannel deadLetters;
+    private FileChannel log;
+
+    private final ConcurrentSkipListSet<Long> pending = new ConcurrentSkipListSet<>();
+    private final ByteBuffer checkpointBuffer = ByteBuffer.allocate(Long.BYTES);
+    private final ByteBuffer stateBuffer = ByteBuffer.allocate(1);
+
+    // Records appended after the end of the file, not written yet
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int buffered;
+
+    // Id of the first byte of the log file, and the bytes written to it
+    private long base;
+    private long size;
+    private long checkpoint;
+    private long replayPosition;
+    private long replayEnd;
+
+    MessageSpool(Path logPath, Path checkpointPath, Path deadLetterPath) throws IOException {
+        this.logPath = logPath;
+        log = FileChannel.open(logPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        checkpointFile = FileChannel.open(checkpointPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        deadLetters = FileChannel.open(deadLetterPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        checkpointBuffer.clear();
+        checkpointFile.read(checkpointBuffer, 0);
+        checkpoint = checkpointBuffer.hasRemaining() ? 0 : checkpointBuffer.getLong(0);
+        if (checkpoint < 0 || checkpoint > log.size())
+            checkpoint = 0;
+
+        scan();
+        requeueDeadLetters();
+    }
+
+    /**
+     * Registers every complete record after the checkpoint as pending and cuts
+     * off a torn record left behind by a crash.
+     */
+    private void scan() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        long position = checkpoint;
+        long fileSize = log.size();
+
+        while (position + HEADER <= fileSize) {
+            header.clear();
+            log.read(header, position);
+            int length = header.getInt(0);
+            if (length < 1 || position + Integer.BYTES + length > fileSize)
+                break;
+
+            if (header.get(Integer.BYTES) == PENDING)
+                pending.add(position);
+            position += Integer.BYTES + length;
+        }
+
+        if (position < fileSize)
+            log.truncate(position);
+
+        size = position;
+        replayPosition = checkpoint;
+        replayEnd = position;
+    }
+
+    /**
+     * Moves the complete records of the dead letter file to the end of the
+     * log, so they are replayed after the other undelivered messages.
+     */
+    private void requeueDeadLetters() throws IOException {
+        long deadSize = deadLetters.size();
+        if (deadSize == 0)
+            return;
+
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        long position = 0;
+        while (position + HEADER <= deadSize) {
+            header.clear();
+            deadLetters.read(header, position);
+            int length = header.getInt(0);
+            if (length < 1 || position + Integer.BYTES + length > deadSize)
+                break;
+
+            pending.add(position + replayEnd);
+            position += Integer.BYTES + length;
+        }
+
+        long copied = 0;
+        while (copied < position)
+            copied += deadLetters.transferTo(copied, position - copied, log.position(replayEnd + copied));
+        replayEnd += position;
+        size += position;
+
+        log.force(false);
+        deadLetters.truncate(0);
+    }
+
+    /**
+     * Reads the next undelivered records left over from a previous run.
+     *
+     * @return up to max messages, empty once everything has been read
+     */
+    synchronized List<QueuedMessage> replay(int max) throws IOException {
+        List<QueuedMessage> result = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        long position = Math.max(replayPosition, base);
+
+        while (result.size() < max && position < replayEnd) {
+            header.clear();
+            log.read(header, position - base);
+            int length = header.getInt(0);
+
+            if (pending.contains(position)) {
+                ByteBuffer body = ByteBuffer.allocate(length - 1);
+                log.read(body, position - base + HEADER);
+
+                QueuedMessage message = QueuedMessage.read(
+                        new DataInputStream(new ByteArrayInputStream(body.array())));
+                message.spoolId = position;
+                result.add(message);
+            }
+
+            position += Integer.BYTES + length;
+        }
+
+        replayPosition = position;
+        return result;
+    }
+
+    /**
+     * Buffers the message and assigns its spool id.
+     *
+     * @return true if the buffer was empty, the caller then schedules a flush
+     */
+    synchronized boolean append(QueuedMessage message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        encode(message, bytes);
+        byte[] record = bytes.toByteArray();
+
+        if (buffered + record.length > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, buffered + record.length));
+        System.arraycopy(record, 0, buffer, buffered, record.length);
+
+        long id = base + size + buffered;
+        buffered += record.length;
+        message.spoolId = id;
+        pending.add(id);
+        return buffered == record.length;
+    }
+
+    /**
+     * Writes the buffered records to the log in one write.
+     */
+    synchronized void flush() throws IOException {
+        if (buffered == 0)
+            return;
+
+        ByteBuffer data = ByteBuffer.wrap(buffer, 0, buffered);
+        while (data.hasRemaining())
+            log.write(data, size + data.position());
+
+        size += buffered;
+        buffered = 0;
+        if (buffer.length > BUFFER_SIZE)
+            buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Marks the message as done so it is never replayed again.
+     */
+    void acknowledge(QueuedMessage message) {
+        if (message.spoolId < 0 || !pending.contains(message.spoolId))
+            return;
+
+        try {
+            advance(message.spoolId);
+        } catch (IOException ignored) {
+            // worst case the message is sent again after a restart
+        }
+    }
+
+    /**
+     * Moves messages that could not be delivered out of the log, so they no
+     * longer hold back the checkpoint. They are tried again on the next start.
+     */
+    synchronized void deadLetter(List<QueuedMessage> messages) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 * messages.size());
+        List<Long> ids = new ArrayList<>(messages.size());
+        for (QueuedMessage message : messages) {
+            if (message.spoolId < 0 || !pending.contains(message.spoolId))
+                continue;
+            ids.add(message.spoolId);
+            encode(message, bytes);
+        }
+        if (ids.isEmpty())
+            return;
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        long position = deadLetters.size();
+        while (buffer.hasRemaining())
+            deadLetters.write(buffer, position + buffer.position());
+
+        for (long id : ids)
+            advance(id);
+    }
+
+    private synchronized void advance(long id) throws IOException {
+        if (!pending.remove(id))
+            return;
+
+        if (pending.isEmpty()) {
+            // Everything has been delivered (and therefore replayed), start over with an empty log
+            base += size + buffered;
+            log.truncate(0);
+            size = 0;
+            buffered = 0;
+            replayPosition = base;
+            replayEnd = base;
+            writeCheckpoint(base);
+            return;
+        }
+
+        long position = id - base + Integer.BYTES;
+        if (position >= size) {
+            buffer[(int) (position - size)] = DELIVERED;
+        } else {
+            stateBuffer.clear();
+            stateBuffer.put(0, DELIVERED);
+            log.write(stateBuffer, position);
+        }
+
+        long oldest = pending.first();
+        if (oldest != checkpoint)
+            writeCheckpoint(oldest);
+
+        long dead = checkpoint - base;
+        if (dead >= COMPACT_BYTES && dead >= size / 2)
+            compact();
+    }
+
+    /**
+     * Rewrites the log from the checkpoint on.
+     */
+    private void compact() throws IOException {
+        flush();
+
+        Path temp = logPath.resolveSibling(logPath.getFileName() + ".tmp");
+        long from = checkpoint - base;
+        long count = size - from;
+
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long copied = 0;
+            while (copied < count)
+                copied += log.transferTo(from + copied, count - copied, out);
+            out.force(false);
+        }
+
+        // Scanning the old log from the start after a crash is still correct,
+        // its delivered records are skipped by their state byte
+        checkpointBuffer.clear();
+        checkpointBuffer.putLong(0, 0);
+        checkpointFile.write(checkpointBuffer, 0);
+        checkpointFile.force(false);
+
+        log.close();
+        try {
+            try {
+                Files.move(temp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, logPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            base = checkpoint;
+            size = count;
+        } finally {
+            log = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            writeCheckpoint(checkpoint);
+        }
+    }
+
+    private void writeCheckpoint(long id) throws IOException {
+        checkpoint = id;
+        checkpointBuffer.clear();
+        checkpointBuffer.putLong(0, id - base);
+        checkpointFile.write(checkpointBuffer, 0);
+    }
+
+    private static void encode(QueuedMessage message, ByteArrayOutputStream bytes) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(0);
+        out.writeByte(PENDING);
+        message.write(out);
+
+        byte[] data = record.toByteArray();
+        ByteBuffer.wrap(data).putInt(0, data.length - Integer.BYTES);
+        bytes.write(data);
+    }
+
+    int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Flushes the log and checkpoint to the storage device.
+     */
+    synchronized void force() throws IOException {
+        flush();
+        log.force(false);
+        checkpointFile.force(false);
+        deadLetters.force(false);
+    }
+
+    synchronized void close() throws IOException {
+        force();
+        log.close();
+        checkpointFile.close();
+        deadLetters.close();
+    }
+}
@@ -0,0 +1,31 @@
+package net.siberanka.discordsocialspy.worker;
+
+import java.util.Locale;
+
+/**
+ * What the dispatcher does with a message when the queue is full.
+ */
+public enum OverflowPolicy {
+
+    /** Reject the new message (the old behaviour). */
+    DROP_NEWEST,
+
+    /** Evict the oldest queued message to make room. */
+    DROP_OLDEST,
+
+    /** Merge identical pending messages into one "(xN)" line, drop the newest if the queue is still full. */
+    COALESCE,
+
+    /** Write overflowing messages to a file in the data folder and send them once the queue drains. */
+    SPILL;
+
+    public static OverflowPolicy parse(String value) {
+        if (value == null)
+            return DROP_NEWEST;
+        try {
+            return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return DROP_NEWEST;
+        }
+    }
+}
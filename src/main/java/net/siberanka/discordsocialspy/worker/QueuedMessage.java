@@ -0,0 +1,141 @@
+package net.siberanka.discordsocialspy.worker;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single log line or embed waiting in the dispatch queue.
+ * The destination is resolved when the message is queued so that a reload
+ * of the routes does not move already queued messages to another channel.
+ */
+final class QueuedMessage {
+
+    final boolean embed;
+    final String destination;
+    final String pingRole;
+
+    // text messages
+    final String text;
+
+    // embeds: template name and placeholder name/value pairs, rendered when sent
+    final String template;
+    final String[] values;
+    final long timestamp;
+
+    // identical messages merged into this one by the COALESCE policy
+    volatile int repeats = 1;
+
+    // record offset in the MessageSpool, -1 if not spooled
+    volatile long spoolId = -1;
+
+    // System.nanoTime() when queued (or read back from disk), for latency metrics
+    final long queuedAt = System.nanoTime();
+
+    private QueuedMessage(boolean embed, String destination, String pingRole, String text,
+            String template, String[] values, long timestamp) {
+        this.embed = embed;
+        this.destination = destination;
+        this.pingRole = pingRole == null || pingRole.isBlank() ? null : pingRole;
+        this.text = text;
+        this.template = template;
+        this.values = values;
+        this.timestamp = timestamp;
+    }
+
+    static QueuedMessage text(String destination, String text, String pingRole) {
+        return new QueuedMessage(false, destination, pingRole, text, null, null, 0L);
+    }
+
+    static QueuedMessage embed(String destination, String template, String[] values, long timestamp, String pingRole) {
+        return new QueuedMessage(true, destination, pingRole, null, template, values, timestamp);
+    }
+
+    /**
+     * Messages with the same key can be merged into one webhook request.
+     */
+    String batchKey() {
+        return (embed ? "E|" : "T|") + destination + "|" + (pingRole == null ? "" : pingRole);
+    }
+
+    /**
+     * Messages with the same key are duplicates of each other.
+     */
+    String contentKey() {
+        return embed
+                ? batchKey() + "|" + template + "|" + String.join("\u0000", values)
+                : batchKey() + "|" + text;
+    }
+
+    String renderedText() {
+        return repeats > 1 ? text + repeatSuffix() : text;
+    }
+
+    /**
+     * @return " (xN)" for coalesced messages, otherwise empty
+     */
+    String repeatSuffix() {
+        return repeats > 1 ? " (x" + repeats + ")" : "";
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeBoolean(embed);
+        writeString(out, destination);
+        writeString(out, pingRole);
+        writeString(out, text);
+        writeString(out, template);
+        out.writeInt(values == null ? -1 : values.length);
+        if (values != null) {
+            for (String value : values)
+                writeString(out, value);
+        }
+        out.writeLong(timestamp);
+        out.writeInt(repeats);
+        out.writeLong(spoolId);
+    }
+
+    static QueuedMessage read(DataInput in) throws IOException {
+        QueuedMessage message = new QueuedMessage(
+                in.readBoolean(),
+                readString(in),
+                readString(in),
+                readString(in),
+                readString(in),
+                readStrings(in),
+                in.readLong());
+        message.repeats = in.readInt();
+        message.spoolId = in.readLong();
+        return message;
+    }
+
+    // writeUTF is limited to 64KB, so strings are stored as length + UTF-8 bytes
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String[] readStrings(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0)
+            return null;
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++)
+            values[i] = readString(in);
+        return values;
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
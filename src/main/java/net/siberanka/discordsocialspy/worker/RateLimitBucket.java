@@ -0,0 +1,180 @@
+package net.siberanka.discordsocialspy.worker;
+
+import java.net.http.HttpHeaders;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Tracks the Discord rate limit of a single webhook.
+ * Discord reports the bucket state in the X-RateLimit-* headers of every
+ * response, so sends are held back locally once the bucket is empty
+ * instead of waiting for a 429.
+ * <p>
+ * Held back sends wait in a FIFO and a single timer releases them in order,
+ * as many as the bucket allows after each reset, rather than every one
+ * waking at the reset time and racing for the same few requests.
+ */
+final class RateLimitBucket {
+
+    // Assumed window after a refill, until a response reports the real one
+    private static final long REFILL_GUESS = 1000;
+
+    private final ObjLongConsumer<Runnable> scheduler;
+
+    private int limit = Integer.MAX_VALUE; // unknown until the first response
+    private int remaining = Integer.MAX_VALUE;
+    private long resetAt; // epoch millis
+
+    private final ArrayDeque<Runnable> waiters = new ArrayDeque<>();
+    private boolean drainScheduled;
+
+    /**
+     * @param scheduler runs a task after a delay in milliseconds
+     */
+    RateLimitBucket(ObjLongConsumer<Runnable> scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Runs the send right away if the bucket has a request left and nothing
+     * is waiting, otherwise queues it until the bucket refills.
+     *
+     * @param first queue it ahead of the other waiters, for a send that was
+     *              already rate limited once
+     */
+    void submit(Runnable send, boolean first) {
+        long wait;
+        synchronized (this) {
+            if (waiters.isEmpty() && take()) {
+                wait = -1;
+            } else {
+                if (first)
+                    waiters.addFirst(send);
+                else
+                    waiters.addLast(send);
+                send = null;
+                wait = scheduleDrain();
+            }
+        }
+
+        if (send != null)
+            send.run();
+        if (wait >= 0)
+            scheduler.accept(this::drain, wait);
+    }
+
+    /**
+     * Releases the waiters the bucket has room for, in order, and waits for
+     * the next reset if some are left.
+     */
+    private void drain() {
+        List<Runnable> ready = new ArrayList<>();
+        long wait;
+        synchronized (this) {
+            drainScheduled = false;
+            while (!waiters.isEmpty() && take())
+                ready.add(waiters.poll());
+            wait = waiters.isEmpty() ? -1 : scheduleDrain();
+        }
+
+        for (Runnable send : ready)
+            send.run();
+        if (wait >= 0)
+            scheduler.accept(this::drain, wait);
+    }
+
+    /**
+     * @return the delay of the drain to schedule, -1 if one is scheduled already
+     */
+    private long scheduleDrain() {
+        if (drainScheduled)
+            return -1;
+        drainScheduled = true;
+        return Math.max(1, resetAt - System.currentTimeMillis());
+    }
+
+    private boolean take() {
+        long now = System.currentTimeMillis();
+        if (remaining <= 0 && now >= resetAt) {
+            // One refill per reset; the responses to these requests bring the real next reset
+            remaining = limit;
+            resetAt = now + REFILL_GUESS;
+        }
+
+        if (remaining > 0) {
+            remaining--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The budget left without reserving anything, used to spread requests
+     * over several webhooks.
+     *
+     * @return the requests left, or minus the milliseconds until the bucket
+     *         refills (and the number of waiting sends) if it is empty
+     */
+    synchronized long budget() {
+        long now = System.currentTimeMillis();
+
+        if (!waiters.isEmpty())
+            return Math.min(now - resetAt, 0) - waiters.size();
+        if (remaining > 0)
+            return remaining;
+        if (now >= resetAt)
+            return limit;
+        return now - resetAt;
+    }
+
+    /**
+     * Updates the bucket from the headers of a Discord response.
+     */
+    synchronized void update(HttpHeaders headers) {
+        long now = System.currentTimeMillis();
+
+        headers.firstValue("X-RateLimit-Limit").ifPresent(v -> limit = parseInt(v, limit));
+        headers.firstValue("X-RateLimit-Remaining").ifPresent(v -> remaining = parseInt(v, remaining));
+
+        long resetAfter = parseSeconds(headers.firstValue("X-RateLimit-Reset-After").orElse(null));
+        if (resetAfter >= 0)
+            resetAt = now + resetAfter;
+    }
+
+    /**
+     * Empties the bucket after a 429 response, until Retry-After has passed.
+     */
+    synchronized void block(HttpHeaders headers, long fallbackMs) {
+        long now = System.currentTimeMillis();
+
+        long wait = parseSeconds(headers.firstValue("Retry-After").orElse(null));
+        if (wait < 0)
+            wait = parseSeconds(headers.firstValue("X-RateLimit-Reset-After").orElse(null));
+        if (wait < 0)
+            wait = fallbackMs;
+
+        remaining = 0;
+        resetAt = Math.max(resetAt, now + wait);
+    }
+
+    private static int parseInt(String value, int def) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    // Discord sends seconds with a fractional part, e.g. "1.337"
+    private static long parseSeconds(String value) {
+        if (value == null)
+            return -1;
+        try {
+            return (long) Math.ceil(Double.parseDouble(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
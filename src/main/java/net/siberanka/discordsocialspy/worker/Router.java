@@ -0,0 +1,96 @@
+package net.siberanka.discordsocialspy.worker;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+/**
+ * Routing table from events to destination names.
+ * <p>
+ * A filter cause is checked first, then the command root, then the event
+ * type, so e.g. a blocked /msg can go to a different channel than a normal
+ * one. Unmatched events use the built-in destinations.
+ */
+public final class Router {
+
+    private static final Router EMPTY = new Router(Map.of(), Map.of(), Map.of());
+
+    private final Map<String, String> byCause;
+    private final Map<String, String> byCommand;
+    private final Map<EventType, String> byEvent;
+
+    private Router(Map<String, String> byCause, Map<String, String> byCommand, Map<EventType, String> byEvent) {
+        this.byCause = byCause;
+        this.byCommand = byCommand;
+        this.byEvent = byEvent;
+    }
+
+    public static Router empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param section the "routes" section with "causes", "commands" and
+     *                "events" maps of key to destination name, may be null
+     */
+    public static Router load(ConfigurationSection section, Logger logger) {
+        if (section == null)
+            return EMPTY;
+
+        Map<String, String> byCause = read(section.getConfigurationSection("causes"));
+        Map<String, String> byCommand = read(section.getConfigurationSection("commands"));
+
+        Map<EventType, String> byEvent = new HashMap<>();
+        for (Map.Entry<String, String> entry : read(section.getConfigurationSection("events")).entrySet()) {
+            EventType type = EventType.parse(entry.getKey());
+            if (type == null)
+                logger.warning("[DiscordSocialSpy] Unknown event type in routes: " + entry.getKey());
+            else
+                byEvent.put(type, entry.getValue());
+        }
+
+        return new Router(byCause, byCommand, Map.copyOf(byEvent));
+    }
+
+    private static Map<String, String> read(ConfigurationSection section) {
+        if (section == null)
+            return Map.of();
+
+        Map<String, String> result = new HashMap<>();
+        for (String key : section.getKeys(false)) {
+            String target = section.getString(key);
+            if (target != null && !target.isBlank())
+                result.put(key.trim().toLowerCase(Locale.ROOT), target.trim().toLowerCase(Locale.ROOT));
+        }
+        return Map.copyOf(result);
+    }
+
+    /**
+     * @param commandRoot lower case command without slash, or null
+     * @param cause       filter cause of a blocked message, or null
+     * @return the destination name, or null if no route matches
+     */
+    String resolve(EventType type, String commandRoot, String cause) {
+        String target;
+        if (cause != null && (target = byCause.get(cause.toLowerCase(Locale.ROOT))) != null)
+            return target;
+        if (commandRoot != null && (target = byCommand.get(commandRoot)) != null)
+            return target;
+        return byEvent.get(type);
+    }
+
+    /**
+     * Every destination name used by a route.
+     */
+    Set<String> targets() {
+        Set<String> targets = new TreeSet<>(byCause.values());
+        targets.addAll(byCommand.values());
+        targets.addAll(byEvent.values());
+        return targets;
+    }
+}
@@ -0,0 +1,135 @@
+package net.siberanka.discordsocialspy.worker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Overflow storage for the SPILL policy.
+ * Messages that do not fit into the in-memory queue are appended to a file
+ * and moved back into the queue, in order, once it has room again.
+ * Each record is stored as [int length][message bytes].
+ * <p>
+ * The offset of the first unread record is kept in a small position file
+ * next to it, written after every refill, so a restart continues where the
+ * previous run stopped instead of sending the read part again.
+ */
+final class SpillFile {
+
+    private final FileChannel channel;
+    private final FileChannel positionFile;
+    private final ByteBuffer positionBuffer = ByteBuffer.allocate(Long.BYTES);
+    private long readPosition;
+
+    SpillFile(Path path, Path positionPath) throws IOException {
+        channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        positionFile = FileChannel.open(positionPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        positionBuffer.clear();
+        positionFile.read(positionBuffer, 0);
+        readPosition = positionBuffer.hasRemaining() ? 0 : positionBuffer.getLong(0);
+        if (readPosition < 0 || readPosition > channel.size())
+            readPosition = 0;
+    }
+
+    synchronized boolean isEmpty() throws IOException {
+        return readPosition >= channel.size();
+    }
+
+    /**
+     * Offers the message to the queue, or appends it to the file if the queue is
+     * full or older messages are still waiting in the file.
+     *
+     * @return true if the message was spilled to disk
+     */
+    synchronized boolean offer(BlockingQueue<QueuedMessage> queue, QueuedMessage message) throws IOException {
+        if (isEmpty() && queue.offer(message))
+            return false;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        message.write(out);
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        buffer.putInt(0, buffer.limit() - 4);
+
+        long position = channel.size();
+        while (buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+        return true;
+    }
+
+    /**
+     * Moves as many spilled messages as fit back into the queue.
+     *
+     * @param skipSpooled skip messages written to the spool by a previous run,
+     *                    the spool replays them
+     */
+    synchronized void refill(BlockingQueue<QueuedMessage> queue, boolean skipSpooled) throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(4);
+        long start = readPosition;
+
+        while (queue.remainingCapacity() > 0 && !isEmpty()) {
+
+            header.clear();
+            channel.read(header, readPosition);
+            int length = header.hasRemaining() ? -1 : header.getInt(0);
+            if (length > channel.size() - readPosition - 4)
+                length = -1;
+
+            ByteBuffer body = ByteBuffer.allocate(Math.max(0, length));
+            if (length >= 0)
+                channel.read(body, readPosition + 4);
+
+            if (length < 0 || body.hasRemaining()) {
+                // Torn record left behind by a crash, nothing after it is readable
+                channel.truncate(readPosition);
+                break;
+            }
+
+            QueuedMessage message = QueuedMessage.read(
+                    new DataInputStream(new ByteArrayInputStream(body.array())));
+            if (skipSpooled && message.spoolId >= 0) {
+                readPosition += 4 + length;
+                continue;
+            }
+            if (!queue.offer(message))
+                break;
+
+            readPosition += 4 + length;
+        }
+
+        // Everything has been read back, start over with an empty file
+        if (isEmpty()) {
+            channel.truncate(0);
+            readPosition = 0;
+        }
+
+        if (readPosition != start)
+            writePosition();
+    }
+
+    private void writePosition() throws IOException {
+        positionBuffer.clear();
+        positionBuffer.putLong(0, readPosition);
+        while (positionBuffer.hasRemaining())
+            positionFile.write(positionBuffer, positionBuffer.position());
+    }
+
+    synchronized void close() throws IOException {
+        writePosition();
+        channel.close();
+        positionFile.close();
+    }
+}
@@ -0,0 +1,86 @@
+package net.siberanka.discordsocialspy.worker;
+
+import net.siberanka.discordsocialspy.util.JsonWriter;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds Discord webhook request bodies with the thread local {@link JsonWriter}.
+ * Embeds are rendered from their compiled {@link EmbedTemplates}.
+ */
+public final class WebhookPayload {
+
+    private WebhookPayload() {
+    }
+
+    public static byte[] text(String content, String pingRole, String username, String avatarUrl) {
+
+        JsonWriter json = JsonWriter.local().beginObject();
+
+        if (pingRole != null)
+            json.name("content").value("<@&", pingRole, "> ", content);
+        else
+            json.name("content").value(content);
+
+        writeProfile(json, username, avatarUrl);
+        writeMentions(json, pingRole);
+
+        return json.endObject().toByteArray();
+    }
+
+    public static byte[] embed(String title, String description, String footer, long timestamp,
+            String pingRole, String username, String avatarUrl) {
+        String[] values = {"title", title, "description", description, "footer", footer};
+        return embeds(List.of(QueuedMessage.embed(null, EmbedTemplates.SIGN, values, timestamp, pingRole)),
+                pingRole, username, avatarUrl, EmbedTemplates.defaults());
+    }
+
+    static byte[] embeds(List<QueuedMessage> embeds, String pingRole, String username, String avatarUrl,
+            EmbedTemplates templates) {
+
+        JsonWriter json = JsonWriter.local().beginObject();
+
+        if (pingRole != null)
+            json.name("content").value("<@&", pingRole, ">");
+
+        writeProfile(json, username, avatarUrl);
+
+        json.name("embeds").beginArray();
+        for (QueuedMessage embed : embeds)
+            templates.get(embed.template).write(json, withBuiltins(embed));
+        json.endArray();
+
+        writeMentions(json, pingRole);
+
+        return json.endObject().toByteArray();
+    }
+
+    private static String[] withBuiltins(QueuedMessage embed) {
+        String[] values = Arrays.copyOf(embed.values, embed.values.length + 4);
+        values[values.length - 4] = "timestamp";
+        values[values.length - 3] = Instant.ofEpochMilli(embed.timestamp).toString();
+        values[values.length - 2] = "repeat";
+        values[values.length - 1] = embed.repeatSuffix();
+        return values;
+    }
+
+    private static void writeProfile(JsonWriter json, String username, String avatarUrl) {
+        json.name("username").value(nullToEmpty(username))
+                .name("avatar_url").value(nullToEmpty(avatarUrl));
+    }
+
+    private static void writeMentions(JsonWriter json, String pingRole) {
+        json.name("allowed_mentions").beginObject();
+        if (pingRole != null)
+            json.name("roles").beginArray().value(pingRole).endArray();
+        else
+            json.name("parse").beginArray().endArray();
+        json.endObject();
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+}
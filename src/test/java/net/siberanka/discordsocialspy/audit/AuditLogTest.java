@@ -0,0 +1,111 @@
+package net.siberanka.discordsocialspy.audit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AuditLogTest {
+
+    private static final Logger LOGGER = Logger.getLogger("AuditLogTest");
+    private static final UUID ALICE = new UUID(1, 1);
+    private static final UUID BOB = new UUID(2, 2);
+
+    @TempDir
+    Path dir;
+
+    private AuditLog open() {
+        AuditLog log = new AuditLog(dir, LOGGER);
+        log.setSegmentSize(0); // clamped to the smallest segment
+        log.setRetentionDays(0); // the test records are from 1970
+        log.start();
+        return log;
+    }
+
+    private static void record(AuditLog log, long time, UUID player, String name, String text) {
+        log.record(time, AuditType.COMMAND, player, name, "world", 1, 2, 3, text);
+    }
+
+    private static List<AuditRecord> lookup(AuditLog log, String name, long since, int limit) throws Exception {
+        return log.lookup(name, since, limit).get();
+    }
+
+    @Test
+    void cutsOffATornTailAndKeepsAppending() throws Exception {
+        AuditLog log = open();
+        for (int i = 0; i < 3; i++)
+            record(log, 1000 + i, ALICE, "Alice", "/cmd " + i);
+        log.close();
+
+        Path segment = dir.resolve("00000000" + AuditSegment.EXTENSION);
+        long intact = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(11).putInt(200).putInt(0).put((byte) 1).put((byte) 2)
+                    .put((byte) 3);
+            torn.flip();
+            channel.write(torn, channel.size());
+        }
+
+        log = open();
+        assertEquals(3, lookup(log, "alice", 0, 10).size());
+        assertEquals(intact, Files.size(segment));
+
+        record(log, 2000, ALICE, "Alice", "/after");
+        log.close();
+
+        log = open();
+        List<AuditRecord> found = lookup(log, "Alice", 0, 10);
+        assertEquals(4, found.size());
+        assertEquals("/after", found.get(0).getText());
+        assertEquals("/cmd 0", found.get(3).getText());
+        log.close();
+    }
+
+    @Test
+    void findsRecordsInSealedSegments() throws Exception {
+        AuditLog log = open();
+        String padding = "x".repeat(1000);
+        for (int i = 0; i < 300; i++) {
+            record(log, i, ALICE, "Alice", "/alice " + i + " " + padding);
+            record(log, i, BOB, "Bob", "/bob " + i + " " + padding);
+        }
+
+        // Still running: the newest records come from the active segment, older ones from sealed files
+        List<AuditRecord> newest = lookup(log, "alice", 0, 5);
+        assertEquals(5, newest.size());
+        assertTrue(newest.get(0).getText().startsWith("/alice 299 "));
+        assertTrue(newest.get(4).getText().startsWith("/alice 295 "));
+        log.close();
+
+        try (var files = Files.list(dir)) {
+            assertTrue(files.filter(p -> p.toString().endsWith(".idx")).count() > 1);
+        }
+
+        // After a restart the sealed segments are loaded from their index files
+        log = open();
+        List<AuditRecord> all = lookup(log, "ALICE", 0, 1000);
+        assertEquals(300, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            AuditRecord record = all.get(i);
+            assertEquals(ALICE, record.getPlayerId());
+            assertEquals(299 - i, (int) record.getTime());
+        }
+
+        List<AuditRecord> recent = lookup(log, "bob", 250, 1000);
+        assertEquals(50, recent.size());
+        assertTrue(recent.get(49).getText().startsWith("/bob 250 "));
+
+        assertTrue(lookup(log, "carol", 0, 10).isEmpty());
+        log.close();
+    }
+}
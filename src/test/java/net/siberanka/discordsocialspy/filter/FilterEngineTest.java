@@ -0,0 +1,93 @@
+package net.siberanka.discordsocialspy.filter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class FilterEngineTest {
+
+    private static final Logger LOGGER = Logger.getLogger("FilterEngineTest");
+
+    private static FilterEngine words(String... words) {
+        return FilterEngine.compile(List.of(words), List.of(), List.of(), 0, LOGGER);
+    }
+
+    @Test
+    void whitelistExemptsOnlyTheSpanItCovers() {
+        FilterEngine engine = FilterEngine.compile(List.of("ass"), List.of("class", "assassin"), List.of(), 0,
+                LOGGER);
+        assertNull(engine.getBlockCause("first class"));
+        assertNull(engine.getBlockCause("classy assassin"));
+        assertEquals(FilterEngine.CAUSE_WORD, engine.getBlockCause("class ass"));
+        assertEquals(FilterEngine.CAUSE_WORD, engine.getBlockCause("ass class"));
+    }
+
+    @Test
+    void whitelistAlsoCoversRegexHits() {
+        FilterEngine engine = FilterEngine.compile(List.of(), List.of("whatever"), List.of("h[a4]te"), 0, LOGGER);
+        assertNull(engine.getBlockCause("whatever"));
+        assertEquals(FilterEngine.CAUSE_REGEX, engine.getBlockCause("whatever, i hate it"));
+        assertEquals(FilterEngine.CAUSE_REGEX, engine.getBlockCause("H4TE"));
+    }
+
+    @Test
+    void combinesRegexesAndKeepsBackReferencesApart() {
+        FilterEngine engine = FilterEngine.compile(List.of(), List.of(),
+                List.of("(?i)discord\\.gg/\\w+", "\\d{3}-\\d{4}", "(\\w)\\1{4}", "[invalid"), 0, LOGGER);
+        assertEquals(FilterEngine.CAUSE_REGEX, engine.getBlockCause("join DISCORD.GG/abc"));
+        assertEquals(FilterEngine.CAUSE_REGEX, engine.getBlockCause("call 555-1234"));
+        assertEquals(FilterEngine.CAUSE_REGEX, engine.getBlockCause("aaaaa"));
+        assertNull(engine.getBlockCause("aaaa"));
+    }
+
+    @Test
+    void matchesFoldedText() {
+        FilterEngine engine = words("ass");
+        assertEquals(FilterEngine.CAUSE_WORD, engine.getBlockCause("A55"));
+        assertEquals(FilterEngine.CAUSE_WORD, engine.getBlockCause("\u0430ss"));
+        assertNull(engine.getBlockCause("455"));
+    }
+
+    @Test
+    void cachesVerdicts() {
+        FilterEngine engine = FilterEngine.compile(List.of("ass"), List.of(), List.of(), 16, LOGGER);
+        assertEquals(FilterEngine.CAUSE_WORD, engine.getBlockCause("ass"));
+        assertEquals(FilterEngine.CAUSE_WORD, engine.getBlockCause("ass"));
+        assertNull(engine.getBlockCause("fine"));
+        assertNull(engine.getBlockCause("fine"));
+        assertEquals(2, engine.getCacheHits());
+        assertEquals(2, engine.getCacheMisses());
+        assertEquals(4, engine.getChecked());
+    }
+
+    @Test
+    void joinsCharactersSpelledOut() {
+        FilterEngine engine = words("fuck");
+        assertEquals(FilterEngine.CAUSE_WORD, engine.getBlockCause("f.u.c.k"));
+        assertEquals(FilterEngine.CAUSE_WORD, engine.getBlockCause("f u c k"));
+        assertEquals(FilterEngine.CAUSE_WORD, engine.getBlockCause("what the f-u-c-k"));
+        assertEquals(FilterEngine.CAUSE_WORD, engine.getBlockCause("f . u . c . k"));
+    }
+
+    @Test
+    void doesNotJoinWords() {
+        assertNull(words("amk").getBlockCause("i am kind"));
+        assertNull(words("amk").getBlockCause("am,kinda"));
+        assertNull(words("amk").getBlockCause("am, kinda"));
+        assertNull(words("slut").getBlockCause("this is.lut"));
+        assertNull(words("slut").getBlockCause("i.s lut"));
+        assertNull(words("shit").getBlockCause("sh it happens"));
+    }
+
+    @Test
+    void joinedViewOnlyMatchesTermsWithoutSeparators() {
+        // "a.s" cannot be spelled out, its separator is part of the term
+        FilterEngine engine = words("a.s");
+        assertEquals(FilterEngine.CAUSE_WORD, engine.getBlockCause("a.s"));
+        assertNull(engine.getBlockCause("a s"));
+    }
+}
@@ -0,0 +1,186 @@
+package net.siberanka.discordsocialspy.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageSpoolTest {
+
+    @TempDir
+    Path dir;
+
+    private MessageSpool open() throws IOException {
+        return new MessageSpool(dir.resolve("spool.dat"), dir.resolve("spool.checkpoint"),
+                dir.resolve("spool-dead.dat"));
+    }
+
+    private static QueuedMessage message(String text) {
+        return QueuedMessage.text(null, text, null);
+    }
+
+    private static List<String> texts(List<QueuedMessage> messages) {
+        List<String> texts = new ArrayList<>();
+        for (QueuedMessage message : messages)
+            texts.add(message.text);
+        return texts;
+    }
+
+    @Test
+    void replaysOnlyUnacknowledgedMessagesInOrder() throws IOException {
+        MessageSpool spool = open();
+        List<QueuedMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            QueuedMessage message = message("m" + i);
+            spool.append(message);
+            messages.add(message);
+        }
+        spool.flush();
+        spool.acknowledge(messages.get(0));
+        spool.acknowledge(messages.get(3));
+        spool.close();
+
+        spool = open();
+        assertEquals(List.of("m1", "m2", "m4"), texts(spool.replay(100)));
+        assertTrue(spool.replay(100).isEmpty());
+        spool.close();
+    }
+
+    @Test
+    void acknowledgementOfBufferedRecordSurvivesFlush() throws IOException {
+        MessageSpool spool = open();
+        QueuedMessage first = message("first");
+        QueuedMessage second = message("second");
+        spool.append(first);
+        spool.append(second);
+        spool.acknowledge(first); // still in the buffer
+        spool.close();
+
+        spool = open();
+        assertEquals(List.of("second"), texts(spool.replay(100)));
+        spool.close();
+    }
+
+    @Test
+    void replayedMessagesCanBeAcknowledged() throws IOException {
+        MessageSpool spool = open();
+        spool.append(message("a"));
+        spool.append(message("b"));
+        spool.close();
+
+        spool = open();
+        List<QueuedMessage> replayed = spool.replay(100);
+        spool.acknowledge(replayed.get(0));
+        spool.close();
+
+        spool = open();
+        assertEquals(List.of("b"), texts(spool.replay(100)));
+        spool.close();
+    }
+
+    @Test
+    void truncatesOnceEverythingIsDelivered() throws IOException {
+        MessageSpool spool = open();
+        List<QueuedMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            QueuedMessage message = message("m" + i);
+            spool.append(message);
+            messages.add(message);
+        }
+        spool.flush();
+        assertTrue(Files.size(dir.resolve("spool.dat")) > 0);
+
+        for (QueuedMessage message : messages)
+            spool.acknowledge(message);
+        assertEquals(0, spool.pendingCount());
+        assertEquals(0, Files.size(dir.resolve("spool.dat")));
+
+        // Ids keep growing after the truncation, an old id cannot acknowledge a new record
+        QueuedMessage next = message("next");
+        spool.append(next);
+        spool.acknowledge(messages.get(0));
+        assertEquals(1, spool.pendingCount());
+        spool.close();
+    }
+
+    @Test
+    void compactsWhileSomethingIsAlwaysPending() throws IOException {
+        MessageSpool spool = open();
+        String padding = "x".repeat(1000);
+        Deque<QueuedMessage> inFlight = new ArrayDeque<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            QueuedMessage message = message("m" + i + padding);
+            spool.append(message);
+            spool.flush();
+            inFlight.add(message);
+            if (inFlight.size() > 10)
+                spool.acknowledge(inFlight.poll());
+        }
+
+        // 20 MB went through, only the tail behind the checkpoint is kept
+        assertTrue(Files.size(dir.resolve("spool.dat")) < 12L << 20);
+        spool.close();
+
+        spool = open();
+        List<QueuedMessage> replayed = spool.replay(100);
+        assertEquals(10, replayed.size());
+        assertTrue(replayed.get(0).text.startsWith("m19990x"));
+        assertTrue(replayed.get(9).text.startsWith("m19999x"));
+        spool.close();
+    }
+
+    @Test
+    void deadLettersReleaseTheCheckpointAndComeBackOnRestart() throws IOException {
+        MessageSpool spool = open();
+        QueuedMessage stuck = message("stuck");
+        QueuedMessage later = message("later");
+        spool.append(stuck);
+        spool.append(later);
+        spool.flush();
+
+        spool.deadLetter(List.of(stuck));
+        spool.acknowledge(later);
+        assertEquals(0, spool.pendingCount());
+        assertEquals(0, Files.size(dir.resolve("spool.dat")));
+        spool.close();
+
+        spool = open();
+        assertEquals(List.of("stuck"), texts(spool.replay(100)));
+        assertEquals(0, Files.size(dir.resolve("spool-dead.dat")));
+        spool.close();
+    }
+
+    @Test
+    void cutsOffATornRecord() throws IOException {
+        MessageSpool spool = open();
+        spool.append(message("a"));
+        spool.append(message("b"));
+        spool.close();
+
+        // A crash in the middle of a write: a length that promises more than the file holds
+        try (FileChannel channel = FileChannel.open(dir.resolve("spool.dat"), StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(7).putInt(500).put((byte) 0).put((byte) 1).put((byte) 2);
+            torn.flip();
+            channel.write(torn, channel.size());
+        }
+        long intact = Files.size(dir.resolve("spool.dat")) - 7;
+
+        spool = open();
+        assertEquals(List.of("a", "b"), texts(spool.replay(100)));
+        assertEquals(intact, Files.size(dir.resolve("spool.dat")));
+        spool.close();
+    }
+}
@@ -0,0 +1,132 @@
+package net.siberanka.discordsocialspy.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillFileTest {
+
+    @TempDir
+    Path dir;
+
+    private SpillFile open() throws IOException {
+        return new SpillFile(dir.resolve("spill.dat"), dir.resolve("spill.dat.pos"));
+    }
+
+    private static QueuedMessage message(String text) {
+        return QueuedMessage.text(null, text, null);
+    }
+
+    private static List<String> drain(BlockingQueue<QueuedMessage> queue) {
+        List<String> texts = new ArrayList<>();
+        for (QueuedMessage message : queue)
+            texts.add(message.text);
+        queue.clear();
+        return texts;
+    }
+
+    /**
+     * Spills every message by keeping the queue full.
+     */
+    private static void spill(SpillFile file, String... texts) throws IOException {
+        BlockingQueue<QueuedMessage> full = new ArrayBlockingQueue<>(1);
+        full.add(message("occupied"));
+        for (String text : texts)
+            assertTrue(file.offer(full, message(text)));
+    }
+
+    @Test
+    void offersToTheQueueWhileNothingIsSpilled() throws IOException {
+        SpillFile file = open();
+        BlockingQueue<QueuedMessage> queue = new ArrayBlockingQueue<>(4);
+        assertFalse(file.offer(queue, message("a")));
+        assertTrue(file.isEmpty());
+        assertEquals(List.of("a"), drain(queue));
+        file.close();
+    }
+
+    @Test
+    void keepsOrderBehindSpilledMessages() throws IOException {
+        SpillFile file = open();
+        spill(file, "a");
+
+        // The queue has room again, but "a" is still on disk
+        BlockingQueue<QueuedMessage> queue = new ArrayBlockingQueue<>(4);
+        assertTrue(file.offer(queue, message("b")));
+        file.refill(queue, false);
+        assertEquals(List.of("a", "b"), drain(queue));
+        assertTrue(file.isEmpty());
+        assertEquals(0, Files.size(dir.resolve("spill.dat")));
+        file.close();
+    }
+
+    @Test
+    void restartContinuesAfterTheReadPart() throws IOException {
+        SpillFile file = open();
+        spill(file, "m0", "m1", "m2", "m3", "m4");
+
+        BlockingQueue<QueuedMessage> small = new ArrayBlockingQueue<>(2);
+        file.refill(small, false);
+        assertEquals(List.of("m0", "m1"), drain(small));
+        file.close();
+
+        file = open();
+        BlockingQueue<QueuedMessage> queue = new ArrayBlockingQueue<>(10);
+        file.refill(queue, false);
+        assertEquals(List.of("m2", "m3", "m4"), drain(queue));
+        file.close();
+    }
+
+    @Test
+    void skipsSpooledMessagesOnStartup() throws IOException {
+        SpillFile file = open();
+        BlockingQueue<QueuedMessage> full = new ArrayBlockingQueue<>(1);
+        full.add(message("occupied"));
+        QueuedMessage spooled = message("spooled");
+        spooled.spoolId = 42;
+        file.offer(full, spooled);
+        file.offer(full, message("plain"));
+        file.close();
+
+        file = open();
+        BlockingQueue<QueuedMessage> queue = new ArrayBlockingQueue<>(10);
+        file.refill(queue, true);
+        assertEquals(List.of("plain"), drain(queue));
+        assertTrue(file.isEmpty());
+        file.close();
+    }
+
+    @Test
+    void dropsATornRecord() throws IOException {
+        SpillFile file = open();
+        spill(file, "a", "b");
+        file.close();
+
+        try (FileChannel channel = FileChannel.open(dir.resolve("spill.dat"), StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(6).putInt(300).put((byte) 1).put((byte) 2);
+            torn.flip();
+            channel.write(torn, channel.size());
+        }
+
+        file = open();
+        BlockingQueue<QueuedMessage> queue = new ArrayBlockingQueue<>(10);
+        file.refill(queue, false);
+        assertEquals(List.of("a", "b"), drain(queue));
+        assertTrue(file.isEmpty());
+        file.close();
+    }
+}